@@ -0,0 +1,50 @@
+package benchmarks;
+
+import com.github.voxxin.web.element.HtmlElement;
+import com.github.voxxin.web.element.HtmlElementBuilder;
+import com.github.voxxin.web.element.HtmlHandler;
+import com.github.voxxin.web.element.HtmlParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HtmlParser#parseHtmlString(String)} as documents grow, and {@link HtmlParser#parse(String, HtmlHandler)}
+ * without building a tree. Parsing should take time in proportion to the size of the document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlParserBenchmark {
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private String html;
+
+    @Setup
+    public void setup() {
+        html = new HtmlElementBuilder().addElement(HtmlRenderBenchmark.page(items, "Items")).build();
+    }
+
+    @Benchmark
+    public List<HtmlElement> parse() {
+        return HtmlParser.parseHtmlString(html);
+    }
+
+    @Benchmark
+    public int scan() {
+        int[] elements = new int[1];
+        HtmlParser.parse(html, new HtmlHandler() {
+            @Override
+            public void startElement(String tagName, Map<String, List<String>> attributes, boolean selfClosing) {
+                elements[0]++;
+            }
+        });
+        return elements[0];
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.HttpRequestParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a request head as a browser sends it into a {@link FormattedRequest}, both from raw bytes with
+ * {@link HttpRequestParser} and from header lines with the public constructor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    private static final List<String> HEADER_LINES = List.of(
+            "GET /shop/items:featured?page=2&sort=price&q=blue+shoes HTTP/1.1",
+            "Host: shop.example.com",
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0",
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8",
+            "Accept-Language: en-US,en;q=0.5",
+            "Accept-Encoding: gzip, deflate, br, zstd",
+            "Referer: https://shop.example.com/shop/items?page=1",
+            "Connection: keep-alive",
+            "Cookie: session=6f1c2a9e0b7d4e3f8a5b1c2d3e4f5a6b; theme=dark; consent=1",
+            "Upgrade-Insecure-Requests: 1",
+            "Sec-Fetch-Dest: document",
+            "Sec-Fetch-Mode: navigate",
+            "Sec-Fetch-Site: same-origin",
+            "If-None-Match: \"5d8c72a5edda8\"");
+
+    private byte[] head;
+    private HttpRequestParser parser;
+
+    @Setup
+    public void setup() {
+        head = (String.join("\r\n", HEADER_LINES) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        parser = new HttpRequestParser();
+    }
+
+    @Benchmark
+    public FormattedRequest parse() throws IOException {
+        return parser.next(new ByteArrayInputStream(head));
+    }
+
+    @Benchmark
+    public void parseAndRead(Blackhole blackhole) throws IOException {
+        FormattedRequest request = parser.next(new ByteArrayInputStream(head));
+        blackhole.consume(request.getPath());
+        blackhole.consume(request.getQuery());
+        blackhole.consume(request.getHeader("accept-encoding"));
+        blackhole.consume(request.getHeader("connection"));
+    }
+
+    @Benchmark
+    public void fromHeaderLines(Blackhole blackhole) {
+        FormattedRequest request = new FormattedRequest(new ArrayList<>(HEADER_LINES));
+        blackhole.consume(request.getPath());
+        blackhole.consume(request.getHeader("accept-encoding"));
+    }
+}
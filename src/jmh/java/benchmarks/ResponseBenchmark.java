@@ -0,0 +1,65 @@
+package benchmarks;
+
+import com.github.voxxin.web.request.FormattedResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FormattedResponse#build()} for a small API answer and for larger pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({"64", "16384", "1048576"})
+    public int bodySize;
+
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[bodySize];
+        Arrays.fill(chars, 'x');
+        text = new String(chars);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] buildString() {
+        return new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .contentType("text/html")
+                .addHeader("Cache-Control", "no-cache")
+                .content(text)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] buildBytes() {
+        return new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .contentType("application/octet-stream")
+                .content(bytes)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] buildGzip() {
+        return new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .contentType("text/html")
+                .content(text)
+                .compress("gzip")
+                .build();
+    }
+}
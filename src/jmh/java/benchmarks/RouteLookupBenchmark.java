@@ -0,0 +1,54 @@
+package benchmarks;
+
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.RouteRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures route lookup cost as the number of registered routes grows. The time per lookup should stay roughly the
+ * same for every route count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteLookupBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int routeCount;
+
+    private RouteRegistry registry;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new RouteRegistry();
+        paths = new String[routeCount];
+        for (int i = 0; i < routeCount; i++) {
+            paths[i] = "/public/assets/file-" + i + ".png";
+            registry.add(new AbstractRoute(paths[i]));
+        }
+        registry.add(new AbstractRoute("/api/*"));
+    }
+
+    @Benchmark
+    public AbstractRoute exactRoute() {
+        String path = paths[next];
+        next = next + 1 == paths.length ? 0 : next + 1;
+        return registry.find(path);
+    }
+
+    @Benchmark
+    public AbstractRoute wildcardRoute() {
+        return registry.find("/api/users/42");
+    }
+
+    @Benchmark
+    public AbstractRoute missingRoute() {
+        return registry.find("/public/assets/missing.png");
+    }
+}
@@ -1,36 +1,67 @@
 package com.github.voxxin.web;
 
+import com.github.voxxin.web.request.ChannelOutputStream;
 import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.Socket;
 
 public class AbstractRoute {
 
     public String route;
+    private ResponseCache cache;
 
     public AbstractRoute(String route) {
         route = route.replaceAll("^/+", "");
         this.route = "/"+route;
     }
 
+    /**
+     * Cache the responses of this route. Only use this for routes whose response depends on nothing but the
+     * request path and the query parameters and headers the cache is keyed on.
+     *
+     * @param cache The cache, or null to stop caching.
+     * @return The AbstractRoute instance.
+     */
+    public AbstractRoute cache(ResponseCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Get the response cache of this route.
+     *
+     * @return The cache, or null if responses are not cached.
+     */
+    public ResponseCache getCache() {
+        return cache;
+    }
+
     /**
      * Handle a request received on this route.
      *
      * @param request      The formatted request.
-     * @param clientSocket The client socket.
+     * @param outputStream The connection's output stream. Closing it does not close the connection.
+     * @throws IOException If an I/O error occurs.
      */
-    void handleRequest(FormattedRequest request, Socket clientSocket) {
-        try (OutputStream stream = handleRequests(request, clientSocket.getOutputStream())) {
+    void handleRequest(FormattedRequest request, OutputStream outputStream) throws IOException {
+        ResponseCache cache = this.cache;
+        if (cache != null) cache.handle(request, outputStream, stream -> respond(request, stream));
+        else respond(request, outputStream);
+    }
+
+    private void respond(FormattedRequest request, OutputStream outputStream) throws IOException {
+        try (OutputStream stream = handleRequests(request, outputStream)) {
             stream.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
     }
 
     /**
-     * Handle requests received on this route.
+     * Handle requests received on this route. Answers {@code 501 Not Implemented} unless overridden. Routes that
+     * end with {@code return super.handleRequests(request, outputStream);} after writing their response are left as
+     * they are, because a second response would be read as the answer to the client's next request.
      *
      * @param request       The formatted request.
      * @param outputStream  The output stream to write the response.
@@ -38,9 +69,23 @@ public class AbstractRoute {
      * @throws IOException  If an I/O error occurs.
      */
     public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
-
-        outputStream.write("um...".getBytes());
+        if (hasOutput(outputStream)) return outputStream;
+        new FormattedResponse()
+                .statusCode(501)
+                .statusMessage("Not Implemented")
+                .contentType("text/plain")
+                .content("Not Implemented")
+                .writeTo(outputStream);
         return outputStream;
     }
+
+    /**
+     * Check whether a response has been written to the stream already, as far as the stream can tell.
+     */
+    private static boolean hasOutput(OutputStream outputStream) {
+        if (outputStream instanceof ChannelOutputStream) return ((ChannelOutputStream) outputStream).hasOutput();
+        if (outputStream instanceof ByteArrayOutputStream) return ((ByteArrayOutputStream) outputStream).size() > 0;
+        return false;
+    }
 }
 
@@ -0,0 +1,232 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.FormattedResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which connections and requests a {@link WebServer} takes on. Open connections and requests in flight are
+ * counted against fixed limits, and an optional adaptive limit caps the requests in flight based on how long they
+ * take. Requests in flight beyond the number of worker threads wait for one. Work beyond the limits is answered with a
+ * pre-built {@code 503 Service Unavailable} instead of waiting in a queue, so latency stays bounded while the server
+ * is overloaded.
+ */
+final class AdmissionControl {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    static final int DEFAULT_MAX_QUEUED = 1024;
+    private static final int DRAIN_SIZE = 8192;
+
+    private final int maxConnections;
+    private final int workers;
+    private final int maxInFlight;
+    private final AdaptiveLimit adaptiveLimit;
+    private final byte[] serviceUnavailable;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxConnections The maximum number of open connections.
+     * @param workers        The number of worker threads, or {@link #UNLIMITED} if every request gets its own.
+     * @param maxQueued      The maximum number of requests waiting for a worker thread.
+     * @param adaptiveLimit  The limit on requests in flight, or null to only apply the fixed limits.
+     * @param retryAfter     The number of seconds rejected clients are asked to wait.
+     */
+    AdmissionControl(int maxConnections, int workers, int maxQueued, AdaptiveLimit adaptiveLimit, int retryAfter) {
+        this.maxConnections = maxConnections;
+        this.workers = workers;
+        this.maxInFlight = (int) Math.min(UNLIMITED, (long) workers + maxQueued);
+        this.adaptiveLimit = adaptiveLimit;
+        this.serviceUnavailable = new FormattedResponse()
+                .statusCode(503)
+                .statusMessage("Service Unavailable")
+                .contentType("text/plain")
+                .content("Service Unavailable")
+                .addHeader("Retry-After", Integer.toString(retryAfter))
+                .addHeader("Connection", "close")
+                .build();
+    }
+
+    /**
+     * Count a newly accepted connection.
+     *
+     * @return Whether the connection may be served, otherwise it has to be rejected.
+     */
+    boolean openConnection() {
+        if (connections.incrementAndGet() <= maxConnections) return true;
+        connections.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * Count a connection that was closed after {@link #openConnection()} admitted it.
+     */
+    void closeConnection() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Count a request handed to the executor. Every admitted request must be followed by {@link #finish()} once it
+     * is done.
+     *
+     * @return Whether the request may be queued, otherwise it has to be rejected.
+     */
+    boolean admit() {
+        int running = inFlight.incrementAndGet();
+        if (running > maxInFlight || adaptiveLimit != null && running > adaptiveLimit.get()) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Count an admitted request as done.
+     */
+    void finish() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Feed the time a request took to the adaptive limit.
+     *
+     * @param latency The time from admission, or from being read on a kept-alive connection, to completion in
+     *                nanoseconds.
+     */
+    void record(long latency) {
+        if (adaptiveLimit != null) adaptiveLimit.sample(latency, inFlight.get());
+    }
+
+    /**
+     * Get the pre-built 503 response sent to rejected clients.
+     *
+     * @return The response bytes, which must not be modified.
+     */
+    byte[] serviceUnavailable() {
+        return serviceUnavailable;
+    }
+
+    /**
+     * Answer a connection that was not admitted and close it. The response is written without blocking, and
+     * whatever the client already sent is read first so closing the socket does not reset the connection
+     * before the client has seen the response.
+     *
+     * @param channel The rejected connection.
+     */
+    void reject(SocketChannel channel) {
+        rejected.increment();
+        try (channel) {
+            channel.configureBlocking(false);
+            channel.write(ByteBuffer.wrap(serviceUnavailable));
+            channel.shutdownOutput();
+            channel.read(ByteBuffer.allocate(DRAIN_SIZE));
+        } catch (IOException ignored) {
+            // The client is gone, which is just as good.
+        }
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Get the number of admitted requests waiting for a worker thread.
+     *
+     * @return The queue depth.
+     */
+    int queued() {
+        return Math.max(0, inFlight.get() - workers);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the current limit on requests in flight.
+     *
+     * @return The limit.
+     */
+    int limit() {
+        return adaptiveLimit != null ? Math.min(maxInFlight, adaptiveLimit.get()) : maxInFlight;
+    }
+
+    /**
+     * Limit on requests in flight that follows their latency, in the style of TCP congestion control. Latency is
+     * averaged over short windows and compared to the lowest average seen recently: while it stays close, the
+     * limit grows by one per window in which it was actually used, and once requests queue up and slow down it
+     * shrinks by a fraction. The lowest average is forgotten now and then so the limit follows lasting changes
+     * in how fast routes are.
+     */
+    static final class AdaptiveLimit {
+        private static final long WINDOW_NANOS = 100_000_000L;
+        private static final int MIN_WINDOW_SAMPLES = 10;
+        private static final int BASELINE_WINDOWS = 600;
+        private static final double TOLERANCE = 2.0;
+        private static final double BACKOFF = 0.9;
+
+        private final int minLimit;
+        private final int maxLimit;
+        private volatile int limit;
+
+        private long windowStart = System.nanoTime();
+        private long windowTotal;
+        private int windowSamples;
+        private int windowMaxInFlight;
+        private int windows;
+        private long baseline = Long.MAX_VALUE;
+
+        /**
+         * @param initialLimit The limit to start with.
+         * @param minLimit     The lowest the limit may fall.
+         * @param maxLimit     The highest the limit may grow.
+         */
+        AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        }
+
+        int get() {
+            return limit;
+        }
+
+        synchronized void sample(long latency, int inFlight) {
+            windowTotal += latency;
+            windowSamples++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+
+            long now = System.nanoTime();
+            if (now - windowStart < WINDOW_NANOS || windowSamples < MIN_WINDOW_SAMPLES) return;
+
+            long average = windowTotal / windowSamples;
+            if (++windows >= BASELINE_WINDOWS) {
+                windows = 0;
+                baseline = average;
+            } else {
+                baseline = Math.min(baseline, average);
+            }
+
+            if (average > baseline * TOLERANCE) {
+                limit = Math.max(minLimit, (int) (limit * BACKOFF));
+            } else if (windowMaxInFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+
+            windowStart = now;
+            windowTotal = 0;
+            windowSamples = 0;
+            windowMaxInFlight = 0;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.voxxin.web;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Size-bounded, least recently used cache of pre-built responses for files that are loaded on their first request.
+ * An entry holds everything a route needs to answer requests for a file, like its responses for every content
+ * coding.
+ * <p>
+ * When several requests miss the same file at once only one of them loads it, and the others wait for its
+ * responses. Files larger than the whole cache are rejected when they are registered, so a file is never read
+ * again for every request. An entry that still ends up larger than the cache, because of its headers and
+ * compressed variants or because the cache was made smaller, is kept on its own until the next entry is stored.
+ */
+final class AssetCache {
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Object, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long maxBytes;
+    private long bytes;
+    private long generation;
+
+    AssetCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get cached responses, building and caching them if they are missing. Building happens outside the lock, so a
+     * slow load never blocks hits on other entries, and concurrent misses of the same key share a single load.
+     *
+     * @param key    The cache key.
+     * @param loader Builds the responses on a miss.
+     * @return The responses.
+     * @throws IOException If the responses could not be built.
+     */
+    Entry get(Object key, Loader loader) throws IOException {
+        long started;
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null) return cached;
+            started = generation;
+        }
+
+        CompletableFuture<Entry> load = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, load);
+        if (running != null) return await(running);
+
+        try {
+            Entry loaded = loader.load();
+            put(key, loaded, started);
+            load.complete(loaded);
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * Store responses unless an entry was removed while they were built, in which case they may be stale already.
+     */
+    private synchronized void put(Object key, Entry entry, long started) {
+        if (generation != started) return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null) bytes -= previous.size();
+        bytes += entry.size();
+        trim(key);
+    }
+
+    /**
+     * Check that a file fits in the cache before a route for it is registered.
+     *
+     * @param size The size of the file, or -1 if it is unknown.
+     * @throws IllegalArgumentException If the file is larger than the cache.
+     */
+    synchronized void checkFits(long size) {
+        if (size > maxBytes) {
+            throw new IllegalArgumentException("File of " + size + " bytes does not fit in the asset cache of " + maxBytes + " bytes");
+        }
+    }
+
+    /**
+     * Drop a cached response.
+     *
+     * @param key The cache key.
+     */
+    synchronized void remove(Object key) {
+        generation++;
+        Entry removed = entries.remove(key);
+        if (removed != null) bytes -= removed.size();
+    }
+
+    /**
+     * Set the maximum total size of the cached responses, evicting entries if the cache is now too large.
+     *
+     * @param maxBytes The maximum size in bytes.
+     */
+    synchronized void maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim(null);
+    }
+
+    /**
+     * Get the total size of the cached responses.
+     *
+     * @return The size in bytes.
+     */
+    synchronized long size() {
+        return bytes;
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits, except for the given one.
+     */
+    private void trim(Object keep) {
+        Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Object, Entry> entry = iterator.next();
+            if (entry.getKey().equals(keep)) continue;
+            bytes -= entry.getValue().size();
+            iterator.remove();
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a file to load", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Could not load file", e.getCause());
+        }
+    }
+
+    /**
+     * Cached responses of a file.
+     */
+    interface Entry {
+        /**
+         * Get the memory the responses take.
+         *
+         * @return The size in bytes.
+         */
+        long size();
+    }
+
+    /**
+     * Builds the responses of an entry on a cache miss.
+     */
+    @FunctionalInterface
+    interface Loader {
+        Entry load() throws IOException;
+    }
+
+    /**
+     * Loads the content of a file on a cache miss.
+     */
+    @FunctionalInterface
+    interface ContentLoader {
+        byte[] load() throws IOException;
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.voxxin.web;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Bounded buffer between the event loop, which decodes a request body as it arrives, and the route reading it on
+ * a worker thread. The event loop stops reading from the socket while the pipe is full, so a body takes at most
+ * {@link #CAPACITY} bytes of memory however large it is.
+ * <p>
+ * Once the route is done the pipe is {@link #abandon() abandoned}, and whatever is left of the body is dropped as
+ * it is decoded, so the next request on the connection can be parsed.
+ */
+final class BodyPipe extends InputStream {
+    static final int CAPACITY = 64 * 1024;
+
+    private final byte[] buffer = new byte[CAPACITY];
+    private final Runnable onDrained;
+    private int head = 0;
+    private int count = 0;
+    private boolean finished = false;
+    private boolean abandoned = false;
+    private long dropped = 0;
+    private IOException failure;
+
+    /**
+     * @param onDrained Runs on the reading thread when a full pipe has room again.
+     */
+    BodyPipe(Runnable onDrained) {
+        this.onDrained = onDrained;
+    }
+
+    /**
+     * Decodes body bytes into the pipe without blocking.
+     */
+    @FunctionalInterface
+    interface Decoder {
+        /**
+         * @return The number of bytes decoded, 0 if more input is needed, or -1 at the end of the body.
+         */
+        int decode(byte[] b, int off, int len) throws IOException;
+    }
+
+    /**
+     * Move decoded body bytes into the pipe until it is full or the decoder needs more input.
+     *
+     * @return Whether the pipe has room for more, so reading from the socket should go on.
+     * @throws IOException If the body is malformed or too large.
+     */
+    synchronized boolean fill(Decoder decoder) throws IOException {
+        while (!finished) {
+            if (abandoned) {
+                int read = decoder.decode(buffer, 0, buffer.length);
+                if (read == -1) finished = true;
+                if (read <= 0) break;
+                dropped += read;
+                continue;
+            }
+
+            int tail = (head + count) % buffer.length;
+            int space = Math.min(buffer.length - count, buffer.length - tail);
+            if (space == 0) return false;
+            int read = decoder.decode(buffer, tail, space);
+            if (read == -1) {
+                finished = true;
+                notifyAll();
+            }
+            if (read <= 0) break;
+            count += read;
+            notifyAll();
+        }
+        return !finished;
+    }
+
+    /**
+     * Check whether the whole body has been decoded.
+     *
+     * @return Whether the body is complete.
+     */
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Get the number of bytes dropped since the pipe was abandoned.
+     *
+     * @return The number of bytes.
+     */
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Stop keeping the body for the route. Buffered and later bytes are dropped.
+     */
+    synchronized void abandon() {
+        abandoned = true;
+        dropped += count;
+        count = 0;
+    }
+
+    /**
+     * Make the route's reads fail, because the body cannot be completed.
+     *
+     * @param failure The reason.
+     */
+    synchronized void fail(IOException failure) {
+        if (this.failure == null) this.failure = failure;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+
+        boolean wasFull;
+        int read;
+        synchronized (this) {
+            while (count == 0) {
+                if (failure != null) throw failure;
+                if (finished) return -1;
+                if (abandoned) throw new EOFException("Request body is no longer available");
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the request body");
+                }
+            }
+
+            wasFull = count == buffer.length;
+            read = Math.min(len, Math.min(count, buffer.length - head));
+            System.arraycopy(buffer, head, b, off, read);
+            head = (head + read) % buffer.length;
+            count -= read;
+        }
+        if (wasFull) onDrained.run();
+        return read;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count;
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.HttpRequestParser;
+import com.github.voxxin.web.request.RequestTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Serves the requests of a single client socket. Requests are read and answered in order, so pipelined
+ * requests are handled the same way as sequential ones, and the socket is kept open between requests
+ * unless the client or the server's keep-alive settings say otherwise.
+ * <p>
+ * Every phase of the connection is timed on the server's {@link TimerWheel}: the thread stays blocked in a read or
+ * write, and the timer closes the socket underneath it if the client stalls.
+ */
+class ClientConnection implements Runnable {
+    protected static final Logger LOGGER = LoggerFactory.getLogger(ClientConnection.class);
+    private static final long MAX_BODY_SKIP = 64 * 1024;
+    private final WebServer server;
+    private final SocketChannel channel;
+    private final AdmissionControl admission;
+    private final ConnectionTimeouts timeouts;
+    private final TimerWheel.Timeout timeout;
+    private final ServerMetrics metrics;
+    private final long admitted;
+    private volatile ConnectionTimeouts.Phase phase = ConnectionTimeouts.Phase.HEADER;
+    private volatile boolean timedOut = false;
+
+    /**
+     * @param server   The server.
+     * @param channel  The accepted connection.
+     * @param admitted When the connection was admitted, in {@link System#nanoTime()} units.
+     */
+    ClientConnection(WebServer server, SocketChannel channel, long admitted) {
+        this.server = server;
+        this.channel = channel;
+        this.admission = server.getAdmission();
+        this.timeouts = server.getTimeouts();
+        this.timeout = timeouts.newTimeout(this::expire);
+        this.metrics = server.getMetrics();
+        this.admitted = admitted;
+    }
+
+    @Override
+    public void run() {
+        try (SocketChannel clientChannel = channel;
+             Socket clientSocket = clientChannel.socket();
+             InputStream in = new TimedInputStream(clientSocket.getInputStream());
+             ConnectionOutputStream out = new ConnectionOutputStream(new BufferedOutputStream(new TimedOutputStream(clientSocket.getOutputStream())),
+                     clientChannel, () -> enter(ConnectionTimeouts.Phase.WRITE), metrics)) {
+
+            enter(ConnectionTimeouts.Phase.HEADER);
+            HttpRequestParser parser = server.newRequestParser();
+            int served = 0;
+            boolean keepAlive = true;
+            long started = admitted;
+            while (keepAlive) {
+                FormattedRequest request;
+                try {
+                    request = parser.next(in);
+                } catch (RequestTooLargeException e) {
+                    metrics.recordError(413);
+                    out.write(WebServer.PAYLOAD_TOO_LARGE);
+                    break;
+                } catch (ProtocolException e) {
+                    metrics.recordError(400);
+                    out.write(WebServer.BAD_REQUEST);
+                    break;
+                }
+                if (request == null) break;
+                if (served > 0) started = System.nanoTime();
+                enter(ConnectionTimeouts.Phase.BODY);
+                timeout.disarm();
+
+                if (WebServer.expectsContinue(request)) {
+                    out.write(WebServer.CONTINUE);
+                    out.flush();
+                }
+
+                served++;
+                keepAlive = server.shouldKeepAlive(request, served);
+                AbstractRoute route = server.route(request);
+                out.nextResponse(request, keepAlive);
+                try {
+                    server.dispatch(route, request, out);
+                    out.flush();
+                } catch (IOException | RuntimeException e) {
+                    metrics.record(route, out.status() != 0 ? out.status() : 500, System.nanoTime() - started);
+                    throw e;
+                }
+                long latency = System.nanoTime() - started;
+                admission.record(latency);
+                metrics.record(route, out.status(), latency);
+
+                // Without a status line, or for a body sent without a length, the client cannot tell where the output ends,
+                // except by the socket closing.
+                if (out.status() == 0 || out.closesConnection()) keepAlive = false;
+
+                // Whatever the route did not read of the body has to go before the next request can be parsed.
+                if (keepAlive && !parser.skipBody(MAX_BODY_SKIP)) break;
+                enter(parser.hasBufferedBytes() ? ConnectionTimeouts.Phase.HEADER : ConnectionTimeouts.Phase.IDLE);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!timedOut) LOGGER.error("Error occurred while handling client: {}", e.getMessage());
+        } finally {
+            timeout.disarm();
+            admission.finish();
+            admission.closeConnection();
+        }
+    }
+
+    private void enter(ConnectionTimeouts.Phase phase) {
+        this.phase = phase;
+        timeouts.arm(timeout, phase);
+    }
+
+    /**
+     * Close the socket of a stalled connection, which makes the blocked read or write fail.
+     */
+    private void expire() {
+        ConnectionTimeouts.Phase expired = phase;
+        timedOut = true;
+        timeouts.expired(expired);
+        LOGGER.debug("Closing connection that timed out in phase {}", expired);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Moves an idle connection on to reading headers once the next request starts, and times the reads of a
+     * request body from one to the next.
+     */
+    private final class TimedInputStream extends FilterInputStream {
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            boolean body = phase == ConnectionTimeouts.Phase.BODY;
+            if (body) timeouts.arm(timeout, ConnectionTimeouts.Phase.BODY);
+            int read = in.read(b, off, len);
+            if (read > 0) metrics.received(read);
+            if (body) timeout.disarm();
+            else if (read > 0 && phase == ConnectionTimeouts.Phase.IDLE) enter(ConnectionTimeouts.Phase.HEADER);
+            return read;
+        }
+    }
+
+    /**
+     * Times every write to the socket, so a client that stops reading cannot hold the thread.
+     */
+    private final class TimedOutputStream extends FilterOutputStream {
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ConnectionTimeouts.Phase previous = phase;
+            enter(ConnectionTimeouts.Phase.WRITE);
+            out.write(b, off, len);
+            phase = previous;
+            timeout.disarm();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.FormattedRequest;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Adds the {@code Connection} header the server decided on to a response head written as bytes, such as a
+ * pre-built response, right after its status line. Clients learn from it that the connection closes after the
+ * response, or that an HTTP/1.0 connection stays open.
+ */
+final class ConnectionHeader {
+    private byte[] pending;
+
+    /**
+     * Get the {@code Connection} header value for a response.
+     *
+     * @param request   The request the response answers.
+     * @param keepAlive Whether the connection stays open after the response.
+     * @return The header value, or null if HTTP/1.1 keeping the connection open already says it.
+     */
+    static String value(FormattedRequest request, boolean keepAlive) {
+        if (!keepAlive) return "close";
+        return "HTTP/1.0".equals(request.getHttpVersion()) ? "keep-alive" : null;
+    }
+
+    /**
+     * Start looking for the status line of the next response.
+     *
+     * @param value The header value to add, or null to add nothing.
+     */
+    void reset(String value) {
+        pending = value != null ? ("Connection: " + value + "\r\n").getBytes(StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * Add nothing to the current response, because its writer included the header itself.
+     */
+    void cancel() {
+        pending = null;
+    }
+
+    /**
+     * Get how many of the given bytes go before the header.
+     *
+     * @param b   The bytes written.
+     * @param off The offset of the first byte.
+     * @param len The number of bytes.
+     * @return The number of leading bytes, up to and including the end of the status line, or -1 if the header is
+     * not due in these bytes.
+     */
+    int split(byte[] b, int off, int len) {
+        if (pending == null) return -1;
+        for (int i = 0; i < len; i++) {
+            if (b[off + i] == '\n') return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the header line to insert at the split, after which nothing more is added to the response.
+     *
+     * @return The header line.
+     */
+    byte[] take() {
+        byte[] header = pending;
+        pending = null;
+        return header;
+    }
+}
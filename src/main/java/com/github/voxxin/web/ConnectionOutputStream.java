@@ -0,0 +1,163 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.ChannelOutputStream;
+import com.github.voxxin.web.request.FormattedRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Output stream handed to routes for a persistent connection. Closing it only flushes, so the socket stays
+ * open for the next request on the same connection. The bytes written are counted, and the status code is
+ * picked out of the start of every response. The body of a response to a HEAD request is dropped, so it cannot be
+ * mistaken for the start of the next response, and the {@code Connection} header the server decided on is added
+ * to response heads written to the stream.
+ */
+class ConnectionOutputStream extends ChannelOutputStream {
+    private final OutputStream out;
+    private final GatheringByteChannel channel;
+    private final Runnable onChannelWrite;
+    private final ServerMetrics metrics;
+    private final byte[] statusLine = new byte[ServerMetrics.STATUS_LINE_PREFIX];
+    private final HeadOnlyFilter headOnly = new HeadOnlyFilter();
+    private final ConnectionHeader connectionHeader = new ConnectionHeader();
+    private final byte[] single = new byte[1];
+    private String connection;
+    private boolean omitBody = false;
+    private boolean acceptChunked = true;
+    private boolean close = false;
+    private int statusLength = 0;
+    private int status = 0;
+
+    /**
+     * @param out            The buffered stream to the socket.
+     * @param channel        The socket's channel.
+     * @param onChannelWrite Runs every time the channel is handed out, to time the writes made on it.
+     * @param metrics        Counts the bytes written.
+     */
+    ConnectionOutputStream(OutputStream out, GatheringByteChannel channel, Runnable onChannelWrite, ServerMetrics metrics) {
+        this.out = out;
+        this.channel = channel;
+        this.onChannelWrite = onChannelWrite;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start looking for the status code of the next response.
+     *
+     * @param request   The request the response answers.
+     * @param keepAlive Whether the connection stays open after the response.
+     */
+    void nextResponse(FormattedRequest request, boolean keepAlive) {
+        statusLength = 0;
+        status = 0;
+        omitBody = "HEAD".equals(request.getMethod());
+        acceptChunked = !"HTTP/1.0".equals(request.getHttpVersion());
+        close = false;
+        headOnly.reset();
+        connection = ConnectionHeader.value(request, keepAlive);
+        connectionHeader.reset(connection);
+    }
+
+    /**
+     * Check whether the response written since {@link #nextResponse(FormattedRequest, boolean)} is ended by closing the
+     * connection.
+     *
+     * @return Whether the connection has to be closed.
+     */
+    boolean closesConnection() {
+        return close;
+    }
+
+    /**
+     * Get the status code of the response written since {@link #nextResponse(FormattedRequest, boolean)}.
+     *
+     * @return The status code, or 0 if it is not known.
+     */
+    int status() {
+        return status;
+    }
+
+    @Override
+    public void written(int status, long bytes) {
+        if (status != 0 && this.status == 0 && statusLength == 0) this.status = status;
+        statusLength = statusLine.length;
+        connectionHeader.cancel();
+        metrics.sent(bytes);
+    }
+
+    private void sniff(byte[] b, int off, int len) {
+        int count = Math.min(len, statusLine.length - statusLength);
+        System.arraycopy(b, off, statusLine, statusLength, count);
+        statusLength += count;
+        if (statusLength == statusLine.length) status = ServerMetrics.status(statusLine, 0, statusLength);
+    }
+
+    @Override
+    public boolean hasOutput() {
+        return statusLength > 0;
+    }
+
+    @Override
+    public String connection() {
+        return connection;
+    }
+
+    @Override
+    public boolean omitsBody() {
+        return omitBody;
+    }
+
+    @Override
+    public boolean acceptsChunked() {
+        return acceptChunked;
+    }
+
+    @Override
+    public void closeAfterResponse() {
+        close = true;
+    }
+
+    @Override
+    public GatheringByteChannel channel() throws IOException {
+        out.flush();
+        onChannelWrite.run();
+        return channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (omitBody) len = headOnly.headBytes(b, off, len);
+        if (len == 0) return;
+        if (statusLength < statusLine.length) sniff(b, off, len);
+
+        int split = connectionHeader.split(b, off, len);
+        if (split != -1) {
+            byte[] header = connectionHeader.take();
+            out.write(b, off, split);
+            out.write(header);
+            metrics.sent(split + header.length);
+            off += split;
+            len -= split;
+        }
+        metrics.sent(len);
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
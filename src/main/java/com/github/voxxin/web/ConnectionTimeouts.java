@@ -0,0 +1,104 @@
+package com.github.voxxin.web;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timeouts for the phases of a connection, and counts of the connections closed because one of them ran out.
+ * Every connection owns a single {@link TimerWheel.Timeout} that is re-armed as it moves from phase to phase.
+ */
+final class ConnectionTimeouts implements Closeable {
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final long[] millis = new long[Phase.values().length];
+    private final LongAdder[] expired = new LongAdder[Phase.values().length];
+    private final TimerWheel wheel;
+
+    /**
+     * @param threadName    The name of the timer thread.
+     * @param idleTimeout   How long a kept-alive connection may wait for its next request.
+     * @param headerTimeout How long a client may take to send a request line and headers.
+     * @param bodyTimeout   How long a client may pause while sending a request body.
+     * @param writeTimeout  How long a client may stop reading while a response is written to it.
+     */
+    ConnectionTimeouts(String threadName, long idleTimeout, long headerTimeout, long bodyTimeout, long writeTimeout) {
+        millis[Phase.IDLE.ordinal()] = idleTimeout;
+        millis[Phase.HEADER.ordinal()] = headerTimeout;
+        millis[Phase.BODY.ordinal()] = bodyTimeout;
+        millis[Phase.WRITE.ordinal()] = writeTimeout;
+        for (int i = 0; i < expired.length; i++) expired[i] = new LongAdder();
+        this.wheel = new TimerWheel(threadName, TICK_MILLIS, WHEEL_SIZE);
+    }
+
+    /**
+     * Create the timeout of a new connection.
+     *
+     * @param onExpiry Closes the connection. Runs on the timer thread, so it must not block.
+     * @return The timeout, not armed yet.
+     */
+    TimerWheel.Timeout newTimeout(Runnable onExpiry) {
+        return wheel.newTimeout(onExpiry);
+    }
+
+    /**
+     * Arm a connection's timeout for the phase it enters. Phases without a timeout disarm it.
+     *
+     * @param timeout The connection's timeout.
+     * @param phase   The phase.
+     */
+    void arm(TimerWheel.Timeout timeout, Phase phase) {
+        long delay = millis[phase.ordinal()];
+        if (delay > 0) timeout.arm(delay);
+        else timeout.disarm();
+    }
+
+    /**
+     * Count a connection closed because the given phase took too long.
+     *
+     * @param phase The phase.
+     */
+    void expired(Phase phase) {
+        expired[phase.ordinal()].increment();
+    }
+
+    /**
+     * Get the number of connections closed because the given phase took too long.
+     *
+     * @param phase The phase.
+     * @return The number of connections.
+     */
+    long expiredCount(Phase phase) {
+        return expired[phase.ordinal()].sum();
+    }
+
+    @Override
+    public void close() {
+        wheel.close();
+    }
+
+    /**
+     * The phases of a connection that are timed.
+     */
+    enum Phase {
+        /**
+         * Waiting for the first byte of the next request on a kept-alive connection.
+         */
+        IDLE,
+
+        /**
+         * Reading a request line and headers, timed from their first byte or from accepting the connection.
+         */
+        HEADER,
+
+        /**
+         * Reading a request body, timed from the last bytes that arrived.
+         */
+        BODY,
+
+        /**
+         * Writing a response, timed from the last bytes the client took.
+         */
+        WRITE
+    }
+}
@@ -1,66 +1,618 @@
 package com.github.voxxin.web;
 
+import com.github.voxxin.web.request.ChannelOutputStream;
+import com.github.voxxin.web.request.ContentEncoding;
 import com.github.voxxin.web.request.FormattedRequest;
 import com.github.voxxin.web.request.FormattedResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
-
-import java.io.*;
 import java.nio.file.Path;
-import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
 
+/**
+ * Route serving a single file.
+ * <p>
+ * In-memory files keep their complete response, head and body, built once when the route is created, so every
+ * hit is a single write of the same bytes. Files on disk only keep their path and metadata: the body is sent with
+ * {@link FileChannel#transferTo}, which lets the kernel copy it straight to the socket, or from a read-only
+ * memory mapping created on the first request when the route is mapped. Lazily loaded files build their response
+ * on the first request and keep it in a size-bounded cache shared with other routes.
+ * <p>
+ * Every file is served with a strong {@code ETag} derived from its content and, where known, {@code Last-Modified},
+ * so conditional requests for an unchanged file are answered with a pre-built {@code 304 Not Modified}. Text-like
+ * files are compressed with gzip and deflate once, when their content is first read, and the variant the client
+ * accepts is picked from its {@code Accept-Encoding} header. {@code Range} requests are answered with only the
+ * requested bytes, read straight from the file on disk or the memory mapping for files that are not in memory.
+ */
 public class FilePathRoute extends AbstractRoute {
-    protected static final Logger LOGGER = LoggerFactory.getLogger(FilePathRoute.class);
-    private final String route;
-    private final byte[] bytes;
+    static final String DEFAULT_CACHE_CONTROL = "no-cache";
+
+    /**
+     * Files on disk up to this size get their compressed variants built and kept in memory.
+     */
+    static final long MAX_PRECOMPRESSED_FILE_SIZE = 1024 * 1024;
+    private static final int MIN_PRECOMPRESSED_SIZE = 256;
+    private static final int CODINGS = 3;
+    private static final int MAX_RANGES = 16;
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+    private static final String BOUNDARY = "EasyWebLib" + Long.toHexString(new SecureRandom().nextLong());
+
+    private final String contentType;
+    private final long contentLength;
+    // Only changed under the lock, and then published to requests with a new Prepared.
+    private long lastModified = -1;
+    private String cacheControl = DEFAULT_CACHE_CONTROL;
+    private volatile Prepared prepared;
+
+    private final Path file;
+    private final boolean mapped;
+    private volatile ByteBuffer mappedContent;
+
+    private final AssetCache cache;
+    private final AssetCache.Loader loader;
 
     public FilePathRoute(byte[] bytes, String route) {
+        this(bytes, route, MimeTypes.of(route));
+    }
+
+    public FilePathRoute(byte[] bytes, String route, String contentType) {
+        super(route);
+        this.contentType = contentType;
+        this.contentLength = bytes.length;
+        this.file = null;
+        this.mapped = false;
+        this.cache = null;
+        this.loader = null;
+        this.prepared = new Prepared(HttpValidators.etag(bytes), encode(bytes));
+    }
+
+    /**
+     * Constructor for a route serving a file from disk. The file is read once for its entity tag and, if it is
+     * small and compressible, its compressed variants. After that it is not read until it is requested.
+     *
+     * @param file   The file to serve.
+     * @param route  The route path.
+     * @param mapped Whether to serve the file from a memory mapping instead of {@link FileChannel#transferTo}.
+     *               Mapping suits small, frequently requested files.
+     * @throws IOException If the file can not be read.
+     */
+    public FilePathRoute(Path file, String route, boolean mapped) throws IOException {
+        super(route);
+        this.contentType = MimeTypes.of(route);
+        this.contentLength = Files.size(file);
+        this.lastModified = Files.getLastModifiedTime(file).toMillis();
+        this.file = file;
+        this.mapped = mapped && contentLength <= Integer.MAX_VALUE;
+        this.cache = null;
+        this.loader = null;
+
+        byte[][] bodies = new byte[CODINGS][];
+        String etag;
+        if (contentLength <= MAX_PRECOMPRESSED_FILE_SIZE && ContentEncoding.isCompressible(contentType)) {
+            byte[] content = Files.readAllBytes(file);
+            etag = HttpValidators.etag(content);
+            bodies = encode(content);
+            bodies[ContentEncoding.IDENTITY] = null;
+        } else {
+            etag = HttpValidators.etag(file);
+        }
+        this.prepared = new Prepared(etag, bodies);
+    }
+
+    /**
+     * Constructor for a route whose content is loaded on its first request and kept in a response cache. The
+     * entity tag and compressed variants are computed when the content is loaded.
+     *
+     * @param route         The route path.
+     * @param contentLength The size of the content, or -1 if it is unknown.
+     * @param lastModified  The modification time in milliseconds since the epoch, or -1 if it is unknown.
+     * @param cache         The cache holding the built responses.
+     * @param content       Loads the content on a cache miss.
+     */
+    FilePathRoute(String route, long contentLength, long lastModified, AssetCache cache, AssetCache.ContentLoader content) {
         super(route);
-        this.route = route;
-        this.bytes = bytes;
+        this.contentType = MimeTypes.of(route);
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.file = null;
+        this.mapped = false;
+        this.cache = cache;
+        this.loader = () -> {
+            byte[] bytes = content.load();
+            String etag = HttpValidators.etag(bytes);
+            byte[][] bodies = encode(bytes);
+            synchronized (this) {
+                // The route itself only keeps the entity tag, the content lives in the cache.
+                prepared = new Prepared(etag, null);
+                return new Prepared(etag, bodies);
+            }
+        };
+        this.prepared = new Prepared(null, null);
+    }
+
+    /**
+     * Set the {@code Cache-Control} header sent with the file. Defaults to {@code no-cache}, which lets browsers
+     * keep the file but makes them revalidate it with a conditional request.
+     *
+     * @param cacheControl The header value, or null to leave the header out.
+     * @return The FilePathRoute instance.
+     */
+    public synchronized FilePathRoute cacheControl(String cacheControl) {
+        if (!Objects.equals(this.cacheControl, cacheControl)) {
+            this.cacheControl = cacheControl;
+            prepare();
+        }
+        return this;
+    }
+
+    /**
+     * Set the modification time sent as {@code Last-Modified} and compared with {@code If-Modified-Since}.
+     *
+     * @param lastModified The time in milliseconds since the epoch, or -1 to leave the header out.
+     * @return The FilePathRoute instance.
+     */
+    public synchronized FilePathRoute lastModified(long lastModified) {
+        if (this.lastModified != lastModified) {
+            this.lastModified = lastModified;
+            prepare();
+        }
+        return this;
     }
 
     @Override
     public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+        // Everything below is read from a single snapshot, so a concurrent change of the headers is never half seen.
+        Prepared prepared = cache != null ? (Prepared) cache.get(this, loader) : this.prepared;
+        byte[][] responses = prepared.responses;
+        int coding = ContentEncoding.IDENTITY;
+        if (request != null) {
+            coding = ContentEncoding.select(request.getHeader("Accept-Encoding"),
+                    responses[ContentEncoding.GZIP] != null, responses[ContentEncoding.DEFLATE] != null);
+        }
+
+        // A HEAD request gets the headers of the full response and no body.
+        boolean headOnly = request != null && "HEAD".equals(request.getMethod());
+
+        long[] ranges;
+        if (request != null && isNotModified(request, coding, prepared)) {
+            outputStream.write(prepared.notModified[coding]);
+        } else if (request != null && (ranges = ranges(request, prepared)) != null) {
+            writeRanges(outputStream, ranges, prepared);
+        } else if (responses[coding] != null) {
+            byte[] response = responses[coding];
+            outputStream.write(response, 0, headOnly ? bodyStart(response) : response.length);
+        } else if (headOnly) {
+            outputStream.write(prepared.head);
+        } else if (mapped) {
+            writeMapped(outputStream, prepared.head);
+        } else {
+            writeFile(outputStream, prepared.head);
+        }
+        return outputStream;
+    }
+
+    /**
+     * Check whether the client already holds the current version of the file. {@code If-None-Match} takes
+     * precedence over {@code If-Modified-Since}, which only has a resolution of one second.
+     */
+    private static boolean isNotModified(FormattedRequest request, int coding, Prepared prepared) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) return false;
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) return prepared.etag != null && HttpValidators.matches(ifNoneMatch, prepared.etag(coding));
+
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince == null || prepared.lastModified < 0) return false;
+        long since = HttpValidators.parseDate(ifModifiedSince);
+        return since >= 0 && prepared.lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Get the byte ranges a request asks for. Ranges are only honoured for GET requests, and only if the
+     * {@code If-Range} validator, if any, still matches the file.
+     *
+     * @return Pairs of first and last byte positions, empty if no range can be satisfied, or null to send the
+     * whole file.
+     */
+    private long[] ranges(FormattedRequest request, Prepared prepared) {
+        String range = request.getHeader("Range");
+        if (range == null || !"GET".equals(request.getMethod())) return null;
+
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRangeMatches(ifRange.trim(), prepared)) return null;
+
+        return parseRanges(range, length(prepared.responses[ContentEncoding.IDENTITY]));
+    }
+
+    private static boolean ifRangeMatches(String ifRange, Prepared prepared) {
+        if (ifRange.startsWith("\"")) return ifRange.equals(prepared.etag);
+        if (ifRange.startsWith("W/") || prepared.lastModified < 0) return false;
+        long date = HttpValidators.parseDate(ifRange);
+        return date >= 0 && date / 1000 == prepared.lastModified / 1000;
+    }
+
+    /**
+     * Get the length of the content.
+     *
+     * @param identity The pre-built identity response, or null for files on disk.
+     */
+    private long length(byte[] identity) {
+        return identity != null ? identity.length - bodyStart(identity) : contentLength;
+    }
+
+    /**
+     * Parse a {@code bytes} range header against the length of the content.
+     *
+     * @return Pairs of first and last byte positions, empty if no range can be satisfied, or null if the header
+     * is malformed or asks for too many ranges and should be ignored.
+     */
+    private static long[] parseRanges(String header, long length) {
+        String trimmed = header.trim();
+        if (!trimmed.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+
+        String[] specs = trimmed.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        long[] ranges = new long[specs.length * 2];
+        int count = 0;
         try {
-            Path tempFile = Files.createTempFile("tempImageWebconfig", "." + getFileNameAndExtension(route)[1]);
-            Files.write(tempFile, bytes);
-            try (InputStream inputStream = Files.newInputStream(tempFile)) {
-                writeResponse(inputStream, outputStream, Files.probeContentType(tempFile));
-            } finally {
-                Files.deleteIfExists(tempFile);
+            for (String spec : specs) {
+                String part = spec.trim();
+                int dash = part.indexOf('-');
+                if (dash == -1) return null;
+
+                long first;
+                long last;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(part.substring(1));
+                    if (suffix < 0) return null;
+                    if (suffix == 0) continue;
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(part.substring(0, dash));
+                    last = dash == part.length() - 1 ? Long.MAX_VALUE : Long.parseLong(part.substring(dash + 1));
+                    if (first < 0 || last < first) return null;
+                    last = Math.min(last, length - 1);
+                }
+                if (first >= length) continue;
+
+                ranges[count++] = first;
+                ranges[count++] = last;
             }
-        } catch (IOException e) {
-            LOGGER.error("Error occurred while handling byte array request: {}", e.getMessage());
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return outputStream;
+        return Arrays.copyOf(ranges, count);
     }
 
-    private void writeResponse(InputStream inputStream, OutputStream outputStream, String contentType) throws IOException {
-        outputStream.write(new FormattedResponse()
-                .contentType(contentType)
-                .content(inputStream.readAllBytes())
-                .statusCode(200)
-                .statusMessage("OK").build());
+    /**
+     * Answer a range request with {@code 206 Partial Content}, a {@code multipart/byteranges} body for several
+     * ranges, or {@code 416 Range Not Satisfiable}. Only the requested bytes are read.
+     */
+    private void writeRanges(OutputStream outputStream, long[] ranges, Prepared prepared) throws IOException {
+        byte[] identity = prepared.responses[ContentEncoding.IDENTITY];
+        long length = length(identity);
+        if (ranges.length == 0) {
+            outputStream.write(prepared.headers(new FormattedResponse()
+                    .statusCode(416)
+                    .statusMessage("Range Not Satisfiable"), ContentEncoding.IDENTITY)
+                    .addHeader("Content-Range", "bytes */" + length)
+                    .build());
+            return;
+        }
+
+        FormattedResponse partial = prepared.headers(new FormattedResponse()
+                .statusCode(206)
+                .statusMessage("Partial Content"), ContentEncoding.IDENTITY);
+
+        if (ranges.length == 2) {
+            long count = ranges[1] - ranges[0] + 1;
+            outputStream.write(partial
+                    .contentType(contentType)
+                    .addHeader("Content-Range", "bytes " + ranges[0] + "-" + ranges[1] + "/" + length)
+                    .buildHead(count));
+            writeContent(outputStream, identity, ranges[0], count);
+            return;
+        }
+
+        byte[][] partHeads = new byte[ranges.length / 2][];
+        byte[] end = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long total = end.length;
+        for (int i = 0; i < ranges.length; i += 2) {
+            String partHead = "\r\n--" + BOUNDARY + "\r\n"
+                    + (contentType != null ? "Content-Type: " + contentType + "\r\n" : "")
+                    + "Content-Range: bytes " + ranges[i] + "-" + ranges[i + 1] + "/" + length + "\r\n\r\n";
+            partHeads[i / 2] = partHead.getBytes(StandardCharsets.US_ASCII);
+            total += partHeads[i / 2].length + ranges[i + 1] - ranges[i] + 1;
+        }
+
+        outputStream.write(partial.contentType("multipart/byteranges; boundary=" + BOUNDARY).buildHead(total));
+        for (int i = 0; i < ranges.length; i += 2) {
+            outputStream.write(partHeads[i / 2]);
+            writeContent(outputStream, identity, ranges[i], ranges[i + 1] - ranges[i] + 1);
+        }
+        outputStream.write(end);
     }
 
-    private static String[] getFileNameAndExtension(String path) {
-        String[] parts = new String[2];
-        Pattern p = Pattern.compile("/([^/]+)\\.([^/]+)$");
-        java.util.regex.Matcher m = p.matcher(path);
-        if (m.find()) {
-            // Part 1 is the file name
-            parts[0] = m.group(1);
+    /**
+     * Write part of the identity content, from the pre-built response, the memory mapping or a positioned
+     * {@link FileChannel#transferTo}.
+     */
+    private void writeContent(OutputStream outputStream, byte[] identity, long start, long count) throws IOException {
+        if (identity != null) {
+            outputStream.write(identity, bodyStart(identity) + (int) start, (int) count);
+        } else if (mapped) {
+            ByteBuffer content = mappedContent().duplicate();
+            content.position((int) start).limit((int) (start + count));
+            send(outputStream, content);
+        } else {
+            transfer(outputStream, start, count);
+        }
+    }
 
-            // Part 2 is the extension
-            parts[1] = m.group(2);
+    private static int bodyStart(byte[] response) {
+        for (int i = 3; i < response.length; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n' && response[i - 3] == '\r') return i + 1;
         }
-        return parts;
+        return response.length;
+    }
+
+    /**
+     * Rebuild the pre-serialized responses from the current headers.
+     */
+    private void prepare() {
+        Prepared current = prepared;
+        if (cache != null) cache.remove(this);
+        prepared = new Prepared(current.etag, cache != null ? null : current.bodies());
     }
-}
 
+    /**
+     * Get the content and its compressed variants. Variants are only kept when they are smaller than the content.
+     */
+    private byte[][] encode(byte[] content) {
+        byte[][] bodies = new byte[CODINGS][];
+        bodies[ContentEncoding.IDENTITY] = content;
+        if (content.length < MIN_PRECOMPRESSED_SIZE || !ContentEncoding.isCompressible(contentType)) return bodies;
 
+        for (int coding = ContentEncoding.GZIP; coding < CODINGS; coding++) {
+            byte[] compressed = ContentEncoding.precompress(content, coding);
+            if (compressed.length < content.length) bodies[coding] = compressed;
+        }
+        return bodies;
+    }
+
+    private static boolean hasVariants(byte[][] bodies) {
+        return bodies[ContentEncoding.GZIP] != null || bodies[ContentEncoding.DEFLATE] != null;
+    }
+
+    private void writeFile(OutputStream outputStream, byte[] head) throws IOException {
+        outputStream.write(head);
+        transfer(outputStream, 0, contentLength);
+    }
+
+    /**
+     * Send part of the file on disk. A {@link ChannelOutputStream} decides how, so a transport that writes responses
+     * later can send the file straight to the socket instead of copying it.
+     */
+    private void transfer(OutputStream outputStream, long start, long count) throws IOException {
+        if (outputStream instanceof ChannelOutputStream) {
+            ChannelOutputStream stream = (ChannelOutputStream) outputStream;
+            stream.written(0, stream.sendFile(file, start, count));
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = start;
+            long end = start + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, Math.min(end - position, TRANSFER_CHUNK), target);
+                if (transferred <= 0 && position >= channel.size()) throw new EOFException("File shrank while sending: " + file);
+                position += transferred;
+            }
+        }
+    }
+
+    private void writeMapped(OutputStream outputStream, byte[] head) throws IOException {
+        outputStream.write(head);
+        send(outputStream, mappedContent().duplicate());
+    }
+
+    /**
+     * Send part of the memory mapping, which a {@link ChannelOutputStream} may keep instead of copying.
+     */
+    private static void send(OutputStream outputStream, ByteBuffer content) throws IOException {
+        if (outputStream instanceof ChannelOutputStream) {
+            ChannelOutputStream stream = (ChannelOutputStream) outputStream;
+            stream.written(0, stream.send(content));
+            return;
+        }
+
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        while (content.hasRemaining()) {
+            target.write(content);
+        }
+    }
+
+    private ByteBuffer mappedContent() throws IOException {
+        ByteBuffer content = mappedContent;
+        if (content == null) {
+            synchronized (this) {
+                content = mappedContent;
+                if (content == null) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        content = channel.map(FileChannel.MapMode.READ_ONLY, 0, contentLength);
+                    }
+                    mappedContent = content;
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Two file routes are equal if they serve the same content, identified by its entity tag, from the same
+     * source under the same path.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FilePathRoute other = (FilePathRoute) o;
+        return route.equals(other.route)
+                && Objects.equals(prepared.etag, other.prepared.etag)
+                && Objects.equals(file, other.file)
+                && Objects.equals(contentType, other.contentType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(route, file);
+    }
+
+    /**
+     * Get the content type the file is served with.
+     *
+     * @return The content type.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return The file size in bytes, or -1 if the file is loaded lazily and its size is unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Get the entity tag of the file.
+     *
+     * @return The quoted entity tag, or null if the file is loaded lazily and has not been requested yet.
+     */
+    public String getETag() {
+        return prepared.etag;
+    }
+
+    /**
+     * Get the modification time of the file.
+     *
+     * @return The time in milliseconds since the epoch, or -1 if it is unknown.
+     */
+    public long getLastModified() {
+        return prepared.lastModified;
+    }
+
+    /**
+     * Get the file served from disk.
+     *
+     * @return The file, or null if the route serves in-memory content.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * The responses and validators built from one set of headers. Requests read them through a single volatile
+     * field, so they always see a complete set, never the responses of one set of headers with the validators of
+     * another.
+     */
+    private final class Prepared implements AssetCache.Entry {
+        final String etag;
+        final long lastModified;
+        final String cacheControl;
+        final boolean varies;
+        // Pre-built responses by content coding. For files on disk there is no identity response, only its head.
+        final byte[][] responses = new byte[CODINGS][];
+        final int[] headLengths = new int[CODINGS];
+        final byte[] head;
+        final byte[][] notModified = new byte[CODINGS][];
+
+        /**
+         * Build the responses from the current headers. Called with the lock held, or from a constructor.
+         *
+         * @param etag   The entity tag, or null if the content has not been loaded yet.
+         * @param bodies The content by coding, or null for lazily loaded files.
+         */
+        Prepared(String etag, byte[][] bodies) {
+            this.etag = etag;
+            this.lastModified = FilePathRoute.this.lastModified;
+            this.cacheControl = FilePathRoute.this.cacheControl;
+            this.varies = bodies != null && hasVariants(bodies);
+            for (int coding = 0; coding < CODINGS; coding++) {
+                if (bodies == null || bodies[coding] == null) continue;
+                responses[coding] = newResponse(coding).content(bodies[coding]).build();
+                headLengths[coding] = responses[coding].length - bodies[coding].length;
+            }
+            this.head = file != null ? newResponse(ContentEncoding.IDENTITY).buildHead(contentLength) : null;
+            for (int coding = 0; coding < CODINGS; coding++) {
+                notModified[coding] = headers(new FormattedResponse()
+                        .statusCode(304)
+                        .statusMessage("Not Modified"), coding)
+                        .build();
+            }
+        }
+
+        /**
+         * Recover the content by coding from the pre-built responses.
+         */
+        byte[][] bodies() {
+            byte[][] bodies = new byte[CODINGS][];
+            for (int coding = 0; coding < CODINGS; coding++) {
+                if (responses[coding] != null) bodies[coding] = Arrays.copyOfRange(responses[coding], headLengths[coding], responses[coding].length);
+            }
+            return bodies;
+        }
+
+        private FormattedResponse newResponse(int coding) {
+            return headers(new FormattedResponse()
+                    .contentType(contentType)
+                    .statusCode(200)
+                    .statusMessage("OK"), coding);
+        }
+
+        FormattedResponse headers(FormattedResponse response, int coding) {
+            if (coding != ContentEncoding.IDENTITY) response.addHeader("Content-Encoding", ContentEncoding.name(coding));
+            if (varies) response.addHeader("Vary", "Accept-Encoding");
+            if (etag != null) response.addHeader("ETag", etag(coding));
+            if (lastModified >= 0) response.addHeader("Last-Modified", HttpValidators.formatDate(lastModified));
+            if (cacheControl != null) response.addHeader("Cache-Control", cacheControl);
+            response.addHeader("Accept-Ranges", "bytes");
+            return response;
+        }
+
+        /**
+         * Get the entity tag of a variant. Every coding needs its own strong tag, so the coding is appended.
+         */
+        String etag(int coding) {
+            if (coding == ContentEncoding.IDENTITY) return etag;
+            return etag.substring(0, etag.length() - 1) + "-" + ContentEncoding.name(coding) + '"';
+        }
+
+        @Override
+        public long size() {
+            long size = 0;
+            for (int coding = 0; coding < CODINGS; coding++) {
+                if (responses[coding] != null) size += responses[coding].length;
+                size += notModified[coding].length;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.voxxin.web;
+
+/**
+ * Finds where the head of a response ends in the bytes written for it, so the body of a response to a HEAD request
+ * can be dropped while the headers a GET would get are still sent. The head ends at the first empty line.
+ */
+final class HeadOnlyFilter {
+    private static final int HEAD_END = 4;
+
+    private int matched = 0;
+
+    /**
+     * Start looking for the end of the next response's head.
+     */
+    void reset() {
+        matched = 0;
+    }
+
+    /**
+     * Get how many of the given bytes still belong to the head. The rest is body.
+     *
+     * @param b   The bytes written.
+     * @param off The offset of the first byte.
+     * @param len The number of bytes.
+     * @return The number of leading bytes to keep.
+     */
+    int headBytes(byte[] b, int off, int len) {
+        if (matched == HEAD_END) return 0;
+        for (int i = 0; i < len; i++) {
+            byte c = b[off + i];
+            // Looking for \r\n\r\n: even positions are \r and odd ones \n.
+            if (c == ((matched & 1) == 0 ? '\r' : '\n')) matched++;
+            else matched = c == '\r' ? 1 : 0;
+            if (matched == HEAD_END) return i + 1;
+        }
+        return len;
+    }
+}
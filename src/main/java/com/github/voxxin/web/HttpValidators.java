@@ -0,0 +1,112 @@
+package com.github.voxxin.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Entity tags and HTTP dates used to answer conditional requests.
+ */
+final class HttpValidators {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private HttpValidators() {}
+
+    /**
+     * Get a strong entity tag for some content, derived from its SHA-256 hash.
+     *
+     * @param content The content.
+     * @return The quoted entity tag.
+     */
+    static String etag(byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(content);
+        return etag(digest);
+    }
+
+    /**
+     * Get a strong entity tag for the content of a file, reading it once.
+     *
+     * @param file The file.
+     * @return The quoted entity tag.
+     * @throws IOException If the file could not be read.
+     */
+    static String etag(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return etag(digest);
+    }
+
+    /**
+     * Check whether an {@code If-None-Match} header matches an entity tag, using weak comparison.
+     *
+     * @param header The header value.
+     * @param etag   The quoted entity tag.
+     * @return Whether the header lists the tag or is {@code *}.
+     */
+    static boolean matches(String header, String etag) {
+        for (String part : header.split(",")) {
+            String tag = part.trim();
+            if (tag.equals("*")) return true;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Format a time as an HTTP date.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The formatted date.
+     */
+    static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Parse an HTTP date.
+     *
+     * @param date The date.
+     * @return The time in milliseconds since the epoch, or -1 if the date is not valid.
+     */
+    static long parseDate(String date) {
+        try {
+            return HTTP_DATE.parse(date.trim(), Instant::from).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String etag(MessageDigest digest) {
+        byte[] hash = digest.digest();
+        return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22) + '"';
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.voxxin.web;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in microseconds, bucketed the way HdrHistogram does it: every power of two is
+ * split into {@value #SUB_BUCKETS} linear sub-buckets, so every bucket is at most 1/{@value #SUB_BUCKETS} wider than
+ * its lower bound. Recording finds the bucket with a few shifts and increments a counter, without allocating.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of all recorded latencies.
+     *
+     * @return The sum in microseconds.
+     */
+    public long getSumMicros() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the number of recorded latencies up to and including a bound.
+     *
+     * @param micros The bound in microseconds, rounded down to the nearest bucket boundary.
+     * @return The count.
+     */
+    public long getCountAtOrBelow(long micros) {
+        int last = index(micros + 1) - 1;
+        long total = 0;
+        for (int i = 0; i <= last; i++) total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Get the latency at a percentile, for example 99 for the p99.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding the percentile in microseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Get the bucket of a value. Values below {@value #SUB_BUCKETS} get a bucket each, and above that the position of
+     * the highest bit picks the power of two and the bits below it pick the sub-bucket.
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (Math.min(micros >>> shift, 2 * SUB_BUCKETS - 1) - SUB_BUCKETS);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Get the largest value of a bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Route that serves the {@link ServerMetrics} of a server in the Prometheus text format, for example:
+ * <pre>{@code
+ * web.routes.add(new MetricsRoute("/metrics", web));
+ * }</pre>
+ */
+public class MetricsRoute extends AbstractRoute {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final WebServer server;
+
+    /**
+     * Constructor for MetricsRoute.
+     *
+     * @param route  The route path.
+     * @param server The server whose metrics to serve.
+     */
+    public MetricsRoute(String route, WebServer server) {
+        super(route);
+        this.server = server;
+    }
+
+    @Override
+    public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+        StringBuilder metrics = new StringBuilder(4096);
+        server.getMetrics().writePrometheus(metrics);
+        new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .contentType(CONTENT_TYPE)
+                .addHeader("Cache-Control", "no-store")
+                .content(metrics.toString())
+                .compress(request)
+                .writeTo(outputStream);
+        return outputStream;
+    }
+}
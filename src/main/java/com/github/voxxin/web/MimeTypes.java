@@ -0,0 +1,76 @@
+package com.github.voxxin.web;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types of common web assets by file extension, resolved once when a file is registered instead of
+ * probing the file system on every request.
+ */
+final class MimeTypes {
+    static final String DEFAULT = "application/octet-stream";
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("html", "text/html");
+        TYPES.put("htm", "text/html");
+        TYPES.put("css", "text/css");
+        TYPES.put("js", "text/javascript");
+        TYPES.put("mjs", "text/javascript");
+        TYPES.put("json", "application/json");
+        TYPES.put("map", "application/json");
+        TYPES.put("xml", "application/xml");
+        TYPES.put("txt", "text/plain");
+        TYPES.put("csv", "text/csv");
+        TYPES.put("md", "text/markdown");
+        TYPES.put("webmanifest", "application/manifest+json");
+        TYPES.put("wasm", "application/wasm");
+        TYPES.put("pdf", "application/pdf");
+        TYPES.put("zip", "application/zip");
+        TYPES.put("gz", "application/gzip");
+
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("avif", "image/avif");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("bmp", "image/bmp");
+
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+
+        TYPES.put("mp3", "audio/mpeg");
+        TYPES.put("ogg", "audio/ogg");
+        TYPES.put("wav", "audio/wav");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("webm", "video/webm");
+    }
+
+    private MimeTypes() {}
+
+    /**
+     * Get the content type of a file from its extension.
+     *
+     * @param fileName The file name or path.
+     * @return The content type, {@link #DEFAULT} if the extension is unknown.
+     */
+    static @NotNull String of(@NotNull String fileName) {
+        int slash = fileName.lastIndexOf('/');
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= slash) return DEFAULT;
+
+        String type = TYPES.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (type == null) type = URLConnection.guessContentTypeFromName(fileName);
+        return type != null ? type : DEFAULT;
+    }
+}
@@ -0,0 +1,532 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.ChannelOutputStream;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.HttpRequestParser;
+import com.github.voxxin.web.request.RequestTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of one connection on the non-blocking transport. Bytes are accumulated until a request head is
+ * complete, the route runs on the server's executor, and its response is written back without blocking. The body
+ * reaches the route through a {@link BodyPipe} as it arrives, and the socket is not read while the pipe is full, so
+ * uploads take constant memory like on the blocking transport. Files and memory mappings in a response are not copied: they are sent from the file with
+ * {@link FileChannel#transferTo} or from the mapping once the bytes before them are written.
+ * Only one request is in flight at a time, so pipelined requests are answered in order.
+ * <p>
+ * The connection's timeout is re-armed on the event loop as it moves between phases, and expires on it too.
+ */
+class NioConnection {
+    protected static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+    private static final long MAX_BODY_SKIP = 64 * 1024;
+
+    private final WebServer server;
+    private final Executor loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final AdmissionControl admission;
+    private final ConnectionTimeouts timeouts;
+    private final TimerWheel.Timeout timeout;
+    private final ServerMetrics metrics;
+
+    private final HttpRequestParser parser;
+    private FormattedRequest pending;
+    private BodyPipe body;
+    private boolean bodyFailed = false;
+    private ArrayDeque<Part> out;
+    private boolean busy = false;
+    private boolean closeAfterWrite = false;
+    private boolean closed = false;
+    private int served = 0;
+    private ConnectionTimeouts.Phase phase;
+
+    NioConnection(WebServer server, AdmissionControl admission, Executor loop, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.admission = admission;
+        this.timeouts = server.getTimeouts();
+        this.timeout = timeouts.newTimeout(() -> loop.execute(this::expire));
+        this.metrics = server.getMetrics();
+        this.parser = server.newRequestParser();
+        enter(ConnectionTimeouts.Phase.HEADER);
+    }
+
+    void onReadable() {
+        try {
+            int read = parser.fill(channel);
+            if (read == -1) {
+                close();
+                return;
+            }
+            if (read > 0) metrics.received(read);
+            if (read > 0 && phase == ConnectionTimeouts.Phase.IDLE) enter(ConnectionTimeouts.Phase.HEADER);
+            else if (read > 0 && phase == ConnectionTimeouts.Phase.BODY) enter(ConnectionTimeouts.Phase.BODY);
+            processBuffered();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void onWritable() {
+        try {
+            long total = 0;
+            Part part;
+            while ((part = out.peek()) != null) {
+                long written = part.writeTo(channel);
+                total += written;
+                if (part.isDone()) {
+                    out.poll().close();
+                } else if (written == 0) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                metrics.sent(total);
+                enter(ConnectionTimeouts.Phase.WRITE);
+            }
+            if (!out.isEmpty()) return;
+            out = null;
+
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            busy = false;
+            key.interestOps(SelectionKey.OP_READ);
+            enter(parser.hasBufferedBytes() ? ConnectionTimeouts.Phase.HEADER : ConnectionTimeouts.Phase.IDLE);
+            processBuffered();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        if (out != null) Part.closeAll(out);
+        if (body != null) body.fail(new EOFException("Connection closed before the request body was complete"));
+        timeout.disarm();
+        admission.closeConnection();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Start handling the next buffered request, if a complete one is available.
+     */
+    private void processBuffered() {
+        if (body != null) {
+            pumpBody();
+            if (body != null) return;
+        }
+        if (busy) return;
+
+        try {
+            if (pending == null) {
+                pending = parser.parse();
+                if (pending == null) return;
+                if (WebServer.expectsContinue(pending)) {
+                    int written = channel.write(ByteBuffer.wrap(WebServer.CONTINUE));
+                    metrics.sent(written);
+                    if (written < WebServer.CONTINUE.length) {
+                        close();
+                        return;
+                    }
+                }
+            }
+        } catch (RequestTooLargeException e) {
+            metrics.recordError(413);
+            fail(WebServer.PAYLOAD_TOO_LARGE);
+            return;
+        } catch (ProtocolException e) {
+            metrics.recordError(400);
+            fail(WebServer.BAD_REQUEST);
+            return;
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        FormattedRequest request = pending;
+        pending = null;
+
+        if (!admission.admit()) {
+            fail(admission.serviceUnavailable());
+            return;
+        }
+
+        busy = true;
+        key.interestOps(0);
+        phase = null;
+        timeout.disarm();
+        BodyPipe pipe = null;
+        if (parser.hasPendingBody()) {
+            pipe = new BodyPipe(() -> loop.execute(this::resumeBody));
+            parser.redirectBody(pipe);
+            body = pipe;
+            pumpBody();
+        }
+        BodyPipe requestBody = pipe;
+        served++;
+        boolean keepAlive = server.shouldKeepAlive(request, served);
+        long admitted = System.nanoTime();
+
+        try {
+            server.getExecutor().execute(() -> {
+                ResponseBuffer response = new ResponseBuffer(request, keepAlive);
+                AbstractRoute route = server.route(request);
+                boolean ok = true;
+                try {
+                    server.dispatch(route, request, response);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Error occurred while handling client: {}", e.getMessage());
+                    ok = false;
+                }
+                long latency = System.nanoTime() - admitted;
+                int status = response.status();
+                metrics.record(route, ok || status != 0 ? status : 500, latency);
+                admission.record(latency);
+                admission.finish();
+                // Without a status line, or for a body sent without a length, the client cannot tell where the output ends,
+                // except by the socket closing.
+                boolean keepOpen = ok && keepAlive && status != 0 && !response.close;
+                loop.execute(() -> {
+                    // What the route left unread of the body is dropped before the next request is parsed.
+                    if (requestBody != null) requestBody.abandon();
+                    respond(response.parts(), keepOpen && !bodyFailed);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            admission.finish();
+            close();
+        }
+    }
+
+    /**
+     * Move the body bytes read so far into the pipe, and keep reading from the socket only while the pipe has room.
+     * Once the body is complete, the route reads the rest from the pipe, or the next request is parsed if the
+     * route is done already.
+     */
+    private void pumpBody() {
+        boolean more;
+        try {
+            more = body.fill(parser::decodeBody);
+        } catch (IOException e) {
+            // The route sees the failure when it reads the body, and the connection closes after its response.
+            bodyFailed = true;
+            body.fail(e);
+            body = null;
+            if (!busy) close();
+            else if (out == null) stopReading();
+            return;
+        }
+
+        if (body.isFinished()) {
+            body = null;
+            if (busy && out == null) stopReading();
+        } else if (body.dropped() > MAX_BODY_SKIP) {
+            close();
+        } else if (out == null) {
+            if (more) {
+                key.interestOps(SelectionKey.OP_READ);
+                if (phase != ConnectionTimeouts.Phase.BODY) enter(ConnectionTimeouts.Phase.BODY);
+            } else {
+                // The route has not caught up, so the client has to wait and the body timeout does not run.
+                stopReading();
+            }
+        }
+    }
+
+    private void resumeBody() {
+        if (closed || body == null || out != null) return;
+        pumpBody();
+    }
+
+    private void stopReading() {
+        key.interestOps(0);
+        phase = null;
+        timeout.disarm();
+    }
+
+    private void fail(byte[] response) {
+        busy = true;
+        key.interestOps(0);
+        ArrayDeque<Part> parts = new ArrayDeque<>(1);
+        parts.add(new Part(ByteBuffer.wrap(response)));
+        respond(parts, false);
+    }
+
+    private void respond(ArrayDeque<Part> response, boolean keepAlive) {
+        if (!key.isValid()) {
+            Part.closeAll(response);
+            return;
+        }
+        out = response;
+        closeAfterWrite = !keepAlive;
+        enter(ConnectionTimeouts.Phase.WRITE);
+        key.interestOps(SelectionKey.OP_WRITE);
+        onWritable();
+    }
+
+    private void enter(ConnectionTimeouts.Phase phase) {
+        this.phase = phase;
+        timeouts.arm(timeout, phase);
+    }
+
+    /**
+     * Close the connection unless it moved on to another phase since the timeout expired.
+     */
+    private void expire() {
+        if (closed || phase == null || timeout.isArmed()) return;
+        timeouts.expired(phase);
+        LOGGER.debug("Closing connection that timed out in phase {}", phase);
+        close();
+    }
+
+    /**
+     * Collects a route's output, including what it writes to the channel directly, and hands the collected bytes
+     * out without copying them. Files and memory mappings sent through it are kept as they are, to be written
+     * straight to the socket. The body of a response to a HEAD request is dropped as it is written.
+     */
+    private static final class ResponseBuffer extends ChannelOutputStream implements GatheringByteChannel {
+        private final boolean omitBody;
+        private final boolean acceptChunked;
+        private final HeadOnlyFilter headOnly = new HeadOnlyFilter();
+        private final ConnectionHeader connectionHeader = new ConnectionHeader();
+        private final String connection;
+        private boolean close = false;
+        private final ArrayDeque<Part> parts = new ArrayDeque<>(1);
+        private byte[] buf = new byte[256];
+        private int start = 0;
+        private int count = 0;
+
+        ResponseBuffer(FormattedRequest request, boolean keepAlive) {
+            this.omitBody = "HEAD".equals(request.getMethod());
+            this.acceptChunked = !"HTTP/1.0".equals(request.getHttpVersion());
+            this.connection = ConnectionHeader.value(request, keepAlive);
+            connectionHeader.reset(connection);
+        }
+
+        /**
+         * Get the response in the order it was written. The buffer must not be written to afterwards.
+         */
+        ArrayDeque<Part> parts() {
+            flushBytes();
+            return parts;
+        }
+
+        int status() {
+            Part first = parts.peek();
+            if (first == null || first.bytes == null) return ServerMetrics.status(buf, 0, count);
+            return ServerMetrics.status(first.bytes.array(), first.bytes.arrayOffset() + first.bytes.position(), first.bytes.remaining());
+        }
+
+        @Override
+        public long send(ByteBuffer content) {
+            if (omitBody) return 0;
+            flushBytes();
+            parts.add(new Part(content.duplicate()));
+            return content.remaining();
+        }
+
+        @Override
+        public long sendFile(Path file, long position, long count) throws IOException {
+            if (omitBody) return 0;
+            flushBytes();
+            parts.add(new Part(FileChannel.open(file, StandardOpenOption.READ), file, position, count));
+            return count;
+        }
+
+        @Override
+        public boolean hasOutput() {
+            return count > 0 || !parts.isEmpty();
+        }
+
+        @Override
+        public String connection() {
+            return connection;
+        }
+
+        @Override
+        public void written(int status, long bytes) {
+            connectionHeader.cancel();
+        }
+
+        @Override
+        public boolean omitsBody() {
+            return omitBody;
+        }
+
+        @Override
+        public boolean acceptsChunked() {
+            return acceptChunked;
+        }
+
+        @Override
+        public void closeAfterResponse() {
+            close = true;
+        }
+
+        @Override
+        public GatheringByteChannel channel() {
+            return this;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (omitBody) len = headOnly.headBytes(b, off, len);
+            int split = connectionHeader.split(b, off, len);
+            if (split != -1) {
+                append(b, off, split);
+                byte[] header = connectionHeader.take();
+                append(header, 0, header.length);
+                off += split;
+                len -= split;
+            }
+            append(b, off, len);
+        }
+
+        private void append(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int len = src.remaining();
+            ensureCapacity(len);
+            src.get(buf, count, len);
+            count += omitBody ? headOnly.headBytes(buf, count, len) : len;
+            return len;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) written += write(srcs[i]);
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * End the bytes written since the last file or mapping as a part of their own. Those bytes are not moved
+         * again, so later writes go to a new array if this one is full.
+         */
+        private void flushBytes() {
+            if (count == start) return;
+            parts.add(new Part(ByteBuffer.wrap(buf, start, count - start)));
+            start = count;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (count + extra <= buf.length) return;
+            if (start == 0) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+            } else {
+                byte[] larger = new byte[Math.max(256, 2 * (count - start + extra))];
+                System.arraycopy(buf, start, larger, 0, count - start);
+                buf = larger;
+                count -= start;
+                start = 0;
+            }
+        }
+    }
+
+    /**
+     * A piece of a response waiting to be written: bytes in memory, or a region of a file sent with
+     * {@link FileChannel#transferTo}, which lets the kernel copy it to the socket.
+     */
+    private static final class Part {
+        final ByteBuffer bytes;
+        private final FileChannel file;
+        private final Path path;
+        private long position;
+        private final long end;
+
+        Part(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.file = null;
+            this.path = null;
+            this.end = 0;
+        }
+
+        Part(FileChannel file, Path path, long position, long count) {
+            this.bytes = null;
+            this.file = file;
+            this.path = path;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        /**
+         * Write as much as the socket takes without blocking.
+         *
+         * @return The number of bytes written.
+         */
+        long writeTo(SocketChannel channel) throws IOException {
+            if (bytes != null) return channel.write(bytes);
+
+            long transferred = file.transferTo(position, Math.min(end - position, TRANSFER_CHUNK), channel);
+            if (transferred <= 0 && position >= file.size()) throw new EOFException("File shrank while sending: " + path);
+            position += transferred;
+            return transferred;
+        }
+
+        boolean isDone() {
+            return bytes != null ? !bytes.hasRemaining() : position >= end;
+        }
+
+        void close() {
+            if (file == null) return;
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        static void closeAll(Iterable<Part> parts) {
+            for (Part part : parts) part.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.voxxin.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking transport for {@link WebServer}. One thread accepts connections and hands them round-robin to
+ * a fixed number of event loops, each multiplexing its connections over a single {@link Selector}. Routes
+ * still run on the server's executor, so idle connections cost a selection key and a buffer rather than a thread.
+ */
+class NioServer {
+    protected static final Logger LOGGER = LoggerFactory.getLogger(NioServer.class);
+
+    private final WebServer server;
+    private final int port;
+    private final EventLoop[] loops;
+    private final AdmissionControl admission;
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    NioServer(WebServer server, ServerSocketChannel serverChannel, int loopCount) {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.port = serverChannel.socket().getLocalPort();
+        this.loops = new EventLoop[loopCount];
+        this.admission = server.getAdmission();
+    }
+
+    /**
+     * Start the event loops and the acceptor on the bound server channel.
+     *
+     * @return The acceptor thread.
+     * @throws IOException If a selector could not be opened.
+     */
+    Thread start() throws IOException {
+        running = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            new Thread(loops[i], "EasyWebLib-selector-" + port + "-" + (i + 1)).start();
+        }
+
+        Thread acceptor = new Thread(this::acceptLoop, "EasyWebLib-acceptor-" + port);
+        acceptor.start();
+        LOGGER.info("Started listening on port: {} ({} selector threads)", port, loops.length);
+        return acceptor;
+    }
+
+    /**
+     * Stop accepting connections and close every open connection.
+     */
+    void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while closing server channel: {}", e.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!running) break;
+                LOGGER.error("Error occurred while accepting connection: {}", e.getMessage());
+                continue;
+            }
+            if (!admission.openConnection()) {
+                admission.reject(channel);
+                continue;
+            }
+
+            EventLoop loop = loops[next];
+            next = (next + 1) % loops.length;
+            loop.execute(() -> loop.register(channel));
+        }
+    }
+
+    final class EventLoop implements Runnable, Executor {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Run a task on this loop's thread.
+         *
+         * @param task The task.
+         */
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(server, admission, this, channel, key));
+            } catch (IOException e) {
+                LOGGER.error("Error occurred while registering connection: {}", e.getMessage());
+                admission.closeConnection();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LOGGER.error("Event loop stopped: {}", e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((NioConnection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
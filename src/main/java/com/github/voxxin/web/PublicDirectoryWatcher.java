@@ -0,0 +1,95 @@
+package com.github.voxxin.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches an {@link WebServer.PathType#EXTERNAL} public directory and its subdirectories, and updates only the
+ * routes of files that changed. Events are collected until the directory has been quiet for a moment, so a file
+ * that is written in several steps is read once, after the last write.
+ */
+final class PublicDirectoryWatcher implements Runnable, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublicDirectoryWatcher.class);
+    private static final long SETTLE_MILLIS = 50;
+
+    private final PublicFileHandling publicFiles;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    PublicDirectoryWatcher(PublicFileHandling publicFiles, String threadName) throws IOException {
+        this.publicFiles = publicFiles;
+        Path root = publicFiles.directory();
+        this.watchService = root.getFileSystem().newWatchService();
+        registerAll(root);
+
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                do {
+                    collect(key, changed);
+                } while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+                for (Path path : changed) apply(path);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        if (directory != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                // On overflow some events were lost, so the whole directory is brought up to date.
+                changed.add(event.kind() == OVERFLOW ? directory : directory.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) directories.remove(key);
+    }
+
+    private void apply(Path path) {
+        try {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) registerAll(path);
+            publicFiles.update(path);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not reload {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -4,41 +4,52 @@ import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 class PublicFileHandling {
     private final String filePath;
     private final Class<?> enclosingClass;
-    private final ArrayList<AbstractRoute> routes;
+    private final RouteRegistry routes;
+    private final AssetCache assetCache;
+    private final Map<String, List<FilePathRoute>> registered = new ConcurrentHashMap<>();
+    private String publicPath;
     public final WebServer.PathType pathType;
     public final WebServer.DirectoryPosition directoryPosition;
+    public final WebServer.FileMode fileMode;
+    public final String cacheControl;
 
-    public PublicFileHandling(ArrayList<AbstractRoute> routes, byte[] bytes, String publicPath, WebServer.PathType pathType, WebServer.DirectoryPosition directoryPosition) {
+    public PublicFileHandling(RouteRegistry routes, byte[] bytes, String publicPath, WebServer.PathType pathType, WebServer.DirectoryPosition directoryPosition, WebServer.FileMode fileMode, String cacheControl) {
         this.enclosingClass = this.getClass();
         this.routes = routes;
+        this.assetCache = null;
         this.pathType = pathType;
         this.directoryPosition = directoryPosition;
+        this.fileMode = fileMode;
+        this.cacheControl = cacheControl;
         this.filePath = "";
 
         addPublicFile(bytes, publicPath);
     }
 
-    public PublicFileHandling(Class<?> enclosingClass, ArrayList<AbstractRoute> routes, String filePath, String publicPath, WebServer.PathType pathType, WebServer.DirectoryPosition directoryPosition) {
+    public PublicFileHandling(Class<?> enclosingClass, RouteRegistry routes, AssetCache assetCache, String filePath, String publicPath, WebServer.PathType pathType, WebServer.DirectoryPosition directoryPosition, WebServer.FileMode fileMode, String cacheControl) {
         this.enclosingClass = enclosingClass == null ? this.getClass() : enclosingClass;
         this.routes = routes;
+        this.assetCache = assetCache;
         this.pathType = pathType;
         this.directoryPosition = directoryPosition;
+        this.fileMode = fileMode;
+        this.cacheControl = cacheControl;
         this.filePath = filePath;
 
         handleFile(filePath, publicPath);
     }
 
     public void handleFile(String filePath, String publicPath) {
+        this.publicPath = publicPath;
         try {
             handleDirectory(handleDirectoryStructure(filePath), publicPath);
         } catch (URISyntaxException | IOException e) {
@@ -46,8 +57,11 @@ class PublicFileHandling {
         }
     }
 
-    private List<String> handleDirectoryStructure(String pathStart) throws IOException {
-        List<String> paths = new ArrayList<>();
+    /**
+     * List the files below a directory in a single pass, with their sizes and modification times.
+     */
+    private Map<String, FileInfo> handleDirectoryStructure(String pathStart) throws IOException, URISyntaxException {
+        Map<String, FileInfo> paths = new LinkedHashMap<>();
 
         if (pathType == WebServer.PathType.INTERNAL) {
             final File jarFile = new File(enclosingClass.getProtectionDomain().getCodeSource().getLocation().getPath());
@@ -58,111 +72,153 @@ class PublicFileHandling {
                     while (entries.hasMoreElements()) {
                         JarEntry entry = entries.nextElement();
                         if (entry.isDirectory() || !entry.getName().startsWith(pathStart)) continue;
-                        if (!paths.contains(entry.getName())) {
-                            paths.add(entry.getName());
-                        }
+                        paths.put(entry.getName(), new FileInfo(entry.getSize(), entry.getTime()));
                     }
-                } catch (IOException e) {
-                    System.err.println("Error reading JAR file: " + e.getMessage());
                 }
             } else { // Running from IDEs
-                InputStream inputStream = getClass().getClassLoader().getResourceAsStream(pathStart);
-                if (inputStream != null) {
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                        reader.lines()
-                                .forEach(p -> {
-                                    String formattedP = pathStart + p;
-                                    if (p.contains(".")) {
-                                        if (!paths.contains(formattedP)) {
-                                            paths.add(formattedP);
-                                        }
-                                    } else {
-                                        try {
-                                            paths.addAll(handleDirectoryStructure(formattedP));
-                                        } catch (IOException e) {
-                                            throw new RuntimeException(e);
-                                        }
-                                    }
-                                });
-                    }
-                }
+                URL url = classLoader().getResource(pathStart);
+                if (url != null && "file".equals(url.getProtocol())) walk(Paths.get(url.toURI()), pathStart, paths);
             }
         } else {
-            Files.walk(Paths.get(pathStart))
-                    .filter(Files::isRegularFile)
-                    .map(Path::toString)
-                    .forEach(path -> {
-                        String formattedP = path.replaceAll("^.*" + pathStart, pathStart + path);
-                        if (!paths.contains(formattedP)) {
-                            paths.add(formattedP);
-                        }
-                    });
+            walk(Paths.get(pathStart), pathStart, paths);
         }
 
         return paths;
     }
 
-    private void handleDirectory(List<String> routes, String publicPath) throws URISyntaxException, IOException {
-        for (String route : routes) {
+    private static void walk(Path root, String pathStart, Map<String, FileInfo> paths) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                paths.put(pathStart + root.relativize(path).toString().replace(File.separatorChar, '/'), new FileInfo(Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+            }
+        }
+    }
 
-            boolean isInternal = pathType == WebServer.PathType.INTERNAL;
-            String pathWithoutOriginal = route.replaceFirst("^.*" + filePath, "");
-            if (!pathWithoutOriginal.contains(".")) continue; // Skip directories
+    private void handleDirectory(Map<String, FileInfo> files, String publicPath) throws IOException {
+        for (Map.Entry<String, FileInfo> file : files.entrySet()) {
+            addFile(file.getKey(), file.getValue(), publicPath);
+        }
+    }
 
-            if (directoryPosition == WebServer.DirectoryPosition.CURRENT) {
-                String fileName = pathWithoutOriginal.split("/")[pathWithoutOriginal.split("/").length - 1];
-                addPublicFile(isInternal ? getInternalFile(route) : Files.readAllBytes(new File(route).toPath()), publicPath + fileName);
-            }
+    /**
+     * Get the routes a file is served under, depending on the directory position.
+     */
+    private List<String> publicRoutes(String file, String publicPath) {
+        List<String> publicRoutes = new ArrayList<>(2);
+        String pathWithoutOriginal = file.replaceFirst("^.*" + filePath, "");
+        if (!pathWithoutOriginal.contains(".")) return publicRoutes; // Skip directories
+
+        String fileName = pathWithoutOriginal.split("/")[pathWithoutOriginal.split("/").length - 1];
+        if (directoryPosition == WebServer.DirectoryPosition.CURRENT) {
+            publicRoutes.add(publicPath + fileName);
+        }
+
+        ArrayList<String> split = new ArrayList<>(Arrays.asList(pathWithoutOriginal.split("/")));
+        if (split.get(split.size() - 1).contains(".")) split.remove(split.size() - 1);
 
-            ArrayList<String> split = new ArrayList<>(Arrays.asList(pathWithoutOriginal.split("/")));
-            if (split.get(split.size() - 1).contains(".")) split.remove(split.size() - 1);
+        if (directoryPosition == WebServer.DirectoryPosition.NONE && !split.isEmpty()) return publicRoutes;
+        String sb = String.join("/", split);
+        if (!sb.isEmpty()) sb = sb+"/";
+
+        publicRoutes.add(publicPath + sb + fileName);
+        return publicRoutes;
+    }
 
-            if (directoryPosition == WebServer.DirectoryPosition.NONE && !split.isEmpty()) continue;
-            String sb = String.join("/", split);
-            if (!sb.isEmpty()) sb = sb+"/";
+    private void addFile(String file, FileInfo info, String publicPath) throws IOException {
+        if (pathType == WebServer.PathType.INTERNAL) assetCache.checkFits(info.size);
+
+        List<FilePathRoute> added = new ArrayList<>(2);
+        for (String publicRoute : publicRoutes(file, publicPath)) {
+            FilePathRoute route;
+            if (pathType == WebServer.PathType.INTERNAL) {
+                route = new FilePathRoute(publicRoute, info.size, info.lastModified, assetCache, () -> readResource(file));
+            } else if (fileMode == WebServer.FileMode.MEMORY) {
+                route = new FilePathRoute(Files.readAllBytes(Paths.get(file)), publicRoute).lastModified(info.lastModified);
+            } else {
+                route = new FilePathRoute(Paths.get(file), publicRoute, fileMode == WebServer.FileMode.MAPPED);
+            }
+            added.add(route.cacheControl(cacheControl));
+        }
 
-            String fileName = pathWithoutOriginal.split("/")[pathWithoutOriginal.split("/").length - 1];
-            addPublicFile(isInternal ? getInternalFile(route) : Files.readAllBytes(new File(route).toPath()), publicPath + sb + fileName);
+        // Swap the routes in only once they are fully built, so requests never wait for a file to be read.
+        for (FilePathRoute route : added) routes.add(route);
+        if (pathType == WebServer.PathType.EXTERNAL) {
+            List<FilePathRoute> previous = registered.put(file, added);
+            if (previous != null) {
+                for (FilePathRoute route : previous) routes.remove(route);
+            }
         }
     }
 
-    public byte[] getInternalFile(String filePath) throws IOException, URISyntaxException {
-        final File jarFile = new File(enclosingClass.getProtectionDomain().getCodeSource().getLocation().getPath());
-        byte[] bytes = null;
-        if (jarFile.isFile()) {
-            try (JarFile jar = new JarFile(jarFile)) {
-                Enumeration<JarEntry> entries = jar.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                    String path = entry.getName();
-                    if (path.equals(filePath)) {
-                        File file = File.createTempFile("tempFile", "."+path.replaceAll("^.*\\.", ""));
-
-                        try (InputStream inputStream = jar.getInputStream(entry)) {
-                            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                        }
-
-                        bytes = Files.readAllBytes(file.toPath());
-                        file.delete();
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Error reading JAR file: " + e.getMessage());
+    /**
+     * Get the directory this instance serves.
+     *
+     * @return The directory.
+     */
+    Path directory() {
+        return Paths.get(filePath);
+    }
+
+    /**
+     * Bring the routes below a path of an {@link WebServer.PathType#EXTERNAL} directory in line with the file
+     * system: files that were added or changed are registered again, routes of files that are gone are removed.
+     *
+     * @param path The changed file or directory.
+     * @throws IOException If a changed file could not be read.
+     */
+    void update(Path path) throws IOException {
+        String file = filePath + directory().relativize(path).toString().replace(File.separatorChar, '/');
+
+        if (Files.isRegularFile(path)) {
+            addFile(file, new FileInfo(Files.size(path), Files.getLastModifiedTime(path).toMillis()), publicPath);
+            return;
+        }
+
+        if (Files.isDirectory(path)) {
+            Map<String, FileInfo> files = new LinkedHashMap<>();
+            walk(path, file.endsWith("/") ? file : file + "/", files);
+            handleDirectory(files, publicPath);
+        }
+
+        // Whatever is not on disk any more below the path is removed.
+        String directory = file.endsWith("/") ? file : file + "/";
+        for (String registeredFile : registered.keySet()) {
+            if (!registeredFile.equals(file) && !registeredFile.startsWith(directory)) continue;
+            if (Files.isRegularFile(Paths.get(registeredFile))) continue;
+
+            List<FilePathRoute> removed = registered.remove(registeredFile);
+            if (removed != null) {
+                for (FilePathRoute route : removed) routes.remove(route);
             }
-        } else {
-            URL url = enclosingClass.getProtectionDomain().getClassLoader().getResource(filePath);
-            if (url == null) return null;
-            File file = new File(url.toURI());
-            bytes = Files.readAllBytes(file.toPath());
         }
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        try (InputStream inputStream = classLoader().getResourceAsStream(name)) {
+            if (inputStream == null) throw new FileNotFoundException("Resource not found: " + name);
+            return inputStream.readAllBytes();
+        }
+    }
 
-        return bytes;
+    private ClassLoader classLoader() {
+        ClassLoader classLoader = enclosingClass.getClassLoader();
+        return classLoader != null ? classLoader : ClassLoader.getSystemClassLoader();
     }
 
     private void addPublicFile(byte[] bytes, String publicPath) {
-        FilePathRoute filePathRoute = new FilePathRoute(bytes, publicPath);
-        if (!routes.contains(filePathRoute)) {
-            routes.add(filePathRoute);
+        if (bytes == null) return;
+        routes.add(new FilePathRoute(bytes, publicPath).cacheControl(cacheControl));
+    }
+
+    private static final class FileInfo {
+        final long size;
+        final long lastModified;
+
+        FileInfo(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
         }
     }
 }
@@ -0,0 +1,308 @@
+package com.github.voxxin.web;
+
+import com.github.voxxin.web.request.ContentEncoding;
+import com.github.voxxin.web.request.FormattedRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of complete responses for a route whose output only depends on the request path and its path parameters,
+ * some query parameters and some headers. Routes opt in with {@link AbstractRoute#cache(ResponseCache)}, for example:
+ * <pre>{@code
+ * web.routes.add(new IndexRoute().cache(new ResponseCache(60_000).keyQuery("page").keyHeaders("Accept-Language")));
+ * }</pre>
+ * A hit is written as the stored response bytes without calling {@link AbstractRoute#handleRequests}. Only GET and
+ * HEAD requests answered with {@code 200 OK} are cached, and HTTP/1.0 requests always run the route. The content
+ * coding accepted by the client is always part of the key, so routes may compress their responses.
+ * <p>
+ * Entries expire after a fixed time and the least recently used ones are evicted once the cache holds too many
+ * bytes. When several requests miss the same key at once only one of them runs the route, and the others wait for
+ * and write its response. A request that waits longer than {@link #maxWait(long)} runs the route itself.
+ */
+public final class ResponseCache {
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_WAIT = 10_000;
+    private static final int OK = 200;
+
+    private final long ttlNanos;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT;
+    private String[] keyQuery = new String[0];
+    private String[] keyHeaders = new String[0];
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long bytes;
+    private long generation;
+
+    /**
+     * Constructor for ResponseCache.
+     *
+     * @param ttl How long a response is served from the cache in milliseconds, or 0 to keep it until it is
+     *            evicted or invalidated.
+     */
+    public ResponseCache(long ttl) {
+        if (ttl < 0) throw new IllegalArgumentException("ttl must not be negative");
+        this.ttlNanos = ttl * 1_000_000;
+    }
+
+    /**
+     * Set the maximum total size of the cached responses, evicting entries if the cache is now too large.
+     *
+     * @param maxBytes The maximum size in bytes.
+     * @return The ResponseCache instance.
+     */
+    public synchronized ResponseCache maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+        return this;
+    }
+
+    /**
+     * Set how long a request waits for another request to run the route for the same key, before it runs the route
+     * itself. This keeps a slow or stuck route from holding up every request that misses the cache with it.
+     *
+     * @param maxWait The maximum wait in milliseconds.
+     * @return The ResponseCache instance.
+     */
+    public ResponseCache maxWait(long maxWait) {
+        if (maxWait < 0) throw new IllegalArgumentException("maxWait must not be negative");
+        this.maxWaitMillis = maxWait;
+        return this;
+    }
+
+    /**
+     * Set the query parameters the response depends on. Other query parameters are ignored, so requests that only
+     * differ in them share an entry.
+     *
+     * @param names The query parameter names.
+     * @return The ResponseCache instance.
+     */
+    public ResponseCache keyQuery(String... names) {
+        this.keyQuery = names.clone();
+        return this;
+    }
+
+    /**
+     * Set the request headers the response depends on, for example {@code Accept-Language}.
+     *
+     * @param names The header names.
+     * @return The ResponseCache instance.
+     */
+    public ResponseCache keyHeaders(String... names) {
+        this.keyHeaders = names.clone();
+        return this;
+    }
+
+    /**
+     * Drop every cached response for a path, whatever the method, query or headers were. A path without path
+     * parameters, like {@code /user}, matches all of them, and {@code /user:1} only matches that one.
+     *
+     * @param path The request path.
+     */
+    public synchronized void invalidate(String path) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.matches(path)) {
+                bytes -= entry.response.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop every cached response.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of requests answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of cacheable requests that had to run the route.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the total size of the cached responses.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long size() {
+        return bytes;
+    }
+
+    /**
+     * Answer a request from the cache, or run the route and cache its response.
+     *
+     * @param request      The request.
+     * @param outputStream The connection's output stream.
+     * @param route        Runs the route, writing its response to the given stream.
+     * @throws IOException If the route fails or the response could not be written.
+     */
+    void handle(FormattedRequest request, OutputStream outputStream, Responder route) throws IOException {
+        String method = request.getMethod();
+        // Stored responses may be chunked, which HTTP/1.0 clients cannot read.
+        if (!"GET".equals(method) && !"HEAD".equals(method) || "HTTP/1.0".equals(request.getHttpVersion())) {
+            route.respond(outputStream);
+            return;
+        }
+
+        String path = request.getPath();
+        String pathParameters = request.getPathParameters();
+        String key = key(method, path, pathParameters, request);
+        byte[] cached = get(key);
+        if (cached != null) {
+            hits.increment();
+            outputStream.write(cached);
+            return;
+        }
+        misses.increment();
+
+        CompletableFuture<byte[]> load = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            byte[] response = await(running, maxWaitMillis);
+            // Responses that could not be cached, or took too long, are not shared either, every request runs the
+            // route for itself.
+            if (response != null) outputStream.write(response);
+            else route.respond(outputStream);
+            return;
+        }
+
+        byte[] response = null;
+        try {
+            long started;
+            synchronized (this) {
+                started = generation;
+            }
+            ByteArrayOutputStream capture = new ByteArrayOutputStream();
+            route.respond(capture);
+            byte[] captured = capture.toByteArray();
+            if (ServerMetrics.status(captured, 0, captured.length) == OK) {
+                response = captured;
+                put(key, new Entry(path, pathParameters, response, System.nanoTime() + ttlNanos), started);
+            }
+            outputStream.write(captured);
+        } finally {
+            loading.remove(key, load);
+            load.complete(response);
+        }
+    }
+
+    private synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (ttlNanos > 0 && System.nanoTime() - entry.expires > 0) {
+            entries.remove(key);
+            bytes -= entry.response.length;
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * Store a response unless the cache was invalidated while it was built, in which case it may be stale already.
+     */
+    private synchronized void put(String key, Entry entry, long started) {
+        if (generation != started || entry.response.length > maxBytes) return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null) bytes -= previous.response.length;
+        bytes += entry.response.length;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().response.length;
+            iterator.remove();
+        }
+    }
+
+    private String key(String method, String path, String pathParameters, FormattedRequest request) {
+        StringBuilder key = new StringBuilder(64).append(method).append(' ').append(path);
+        if (pathParameters != null) key.append(':').append(pathParameters);
+        key.append('\n').append(ContentEncoding.select(request.getHeader("Accept-Encoding"), true, true));
+        if (keyQuery.length > 0) {
+            Map<String, String> query = request.getQuery();
+            for (String name : keyQuery) append(key, query != null ? query.get(name) : null);
+        }
+        for (String name : keyHeaders) append(key, request.getHeader(name));
+        return key.toString();
+    }
+
+    private static void append(StringBuilder key, String value) {
+        // Missing values and empty values must not produce the same key.
+        key.append('\n');
+        if (value != null) key.append('=').append(value);
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> load, long maxWaitMillis) throws IOException {
+        try {
+            return load.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a cached response", e);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a route on a cache miss.
+     */
+    @FunctionalInterface
+    interface Responder {
+        void respond(OutputStream outputStream) throws IOException;
+    }
+
+    private static final class Entry {
+        final String path;
+        final String pathParameters;
+        final byte[] response;
+        final long expires;
+
+        Entry(String path, String pathParameters, byte[] response, long expires) {
+            this.path = path;
+            this.pathParameters = pathParameters;
+            this.response = response;
+            this.expires = expires;
+        }
+
+        boolean matches(String path) {
+            int colon = path.indexOf(':');
+            if (colon == -1) return this.path.equals(path);
+            return this.path.equals(path.substring(0, colon)) && path.substring(colon + 1).equals(pathParameters);
+        }
+    }
+}
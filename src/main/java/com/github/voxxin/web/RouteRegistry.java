@@ -0,0 +1,198 @@
+package com.github.voxxin.web;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexed set of routes served by a {@link WebServer}.
+ * <p>
+ * Plain routes are looked up with a single hash map lookup. Routes containing {@code *} segments are kept in a
+ * trie of path segments: a {@code *} in the middle of a route matches exactly one segment, and a trailing
+ * {@code /*} matches everything below that prefix. Plain routes win over patterns, literal segments win over
+ * wildcards and longer prefixes win over shorter ones.
+ * <p>
+ * Lookups never lock, so routes can be added and removed while the server is running.
+ */
+public class RouteRegistry implements Iterable<AbstractRoute> {
+    private static final String WILDCARD = "*";
+
+    private final ConcurrentHashMap<String, AbstractRoute> exactRoutes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AbstractRoute> patternRoutes = new ConcurrentHashMap<>();
+    private final Node root = new Node();
+
+    /**
+     * Add a route, replacing any route registered under the same path.
+     *
+     * @param route The route to add.
+     * @return The route that was replaced, or null if there was none.
+     */
+    public synchronized AbstractRoute add(@NotNull AbstractRoute route) {
+        if (!isPattern(route.route)) return exactRoutes.put(route.route, route);
+
+        AbstractRoute previous = patternRoutes.put(route.route, route);
+        Node node = root;
+        String[] segments = segments(route.route);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals(WILDCARD) && i == segments.length - 1) {
+                node.catchAll = route;
+                return previous;
+            }
+            node = segment.equals(WILDCARD) ? node.wildcard() : node.child(segment);
+        }
+        node.route = route;
+        return previous;
+    }
+
+    /**
+     * Add several routes, replacing any routes registered under the same paths.
+     *
+     * @param routes The routes to add.
+     */
+    public synchronized void addAll(@NotNull Collection<? extends AbstractRoute> routes) {
+        for (AbstractRoute route : routes) add(route);
+    }
+
+    /**
+     * Remove the route registered under the given path.
+     *
+     * @param route The registered route path, for example {@code /public/*}.
+     * @return The removed route, or null if there was none.
+     */
+    public synchronized AbstractRoute remove(@NotNull String route) {
+        if (!isPattern(route)) return exactRoutes.remove(route);
+
+        AbstractRoute removed = patternRoutes.remove(route);
+        if (removed == null) return null;
+
+        Node node = root;
+        String[] segments = segments(route);
+        for (int i = 0; i < segments.length && node != null; i++) {
+            String segment = segments[i];
+            if (segment.equals(WILDCARD) && i == segments.length - 1) {
+                node.catchAll = null;
+                return removed;
+            }
+            node = segment.equals(WILDCARD) ? node.wildcard : node.children.get(segment);
+        }
+        if (node != null) node.route = null;
+        return removed;
+    }
+
+    /**
+     * Remove a route if it is the one currently registered under its path.
+     *
+     * @param route The route to remove.
+     * @return Whether the route was removed.
+     */
+    public synchronized boolean remove(@NotNull AbstractRoute route) {
+        if (get(route.route) != route) return false;
+        remove(route.route);
+        return true;
+    }
+
+    /**
+     * Get the route registered under exactly the given path, without pattern matching.
+     *
+     * @param route The registered route path.
+     * @return The route, or null if there is none.
+     */
+    public @Nullable AbstractRoute get(@NotNull String route) {
+        return isPattern(route) ? patternRoutes.get(route) : exactRoutes.get(route);
+    }
+
+    /**
+     * Check whether a route is registered under the given path.
+     *
+     * @param route The registered route path.
+     * @return Whether a route is registered.
+     */
+    public boolean contains(@NotNull String route) {
+        return get(route) != null;
+    }
+
+    /**
+     * Find the route that should serve a request path.
+     *
+     * @param path The request path.
+     * @return The matching route, or null if no route matches.
+     */
+    public @Nullable AbstractRoute find(@Nullable String path) {
+        if (path == null) return null;
+
+        AbstractRoute route = exactRoutes.get(path);
+        if (route != null || patternRoutes.isEmpty() || path.isEmpty() || path.charAt(0) != '/') return route;
+        return match(root, path, 1);
+    }
+
+    /**
+     * Get the number of registered routes.
+     *
+     * @return The number of routes.
+     */
+    public int size() {
+        return exactRoutes.size() + patternRoutes.size();
+    }
+
+    /**
+     * Get a snapshot of all registered routes.
+     *
+     * @return The registered routes.
+     */
+    public List<AbstractRoute> all() {
+        List<AbstractRoute> routes = new ArrayList<>(size());
+        routes.addAll(exactRoutes.values());
+        routes.addAll(patternRoutes.values());
+        return routes;
+    }
+
+    @Override
+    public @NotNull Iterator<AbstractRoute> iterator() {
+        return all().iterator();
+    }
+
+    /**
+     * Match the segments of a path starting at {@code start} below the given node.
+     */
+    private static AbstractRoute match(Node node, String path, int start) {
+        if (start > path.length()) return node.route;
+
+        int end = path.indexOf('/', start);
+        if (end == -1) end = path.length();
+
+        Node child = node.children.get(path.substring(start, end));
+        AbstractRoute route = child != null ? match(child, path, end + 1) : null;
+
+        Node wildcard = node.wildcard;
+        if (route == null && wildcard != null) route = match(wildcard, path, end + 1);
+
+        return route != null ? route : node.catchAll;
+    }
+
+    private static boolean isPattern(String route) {
+        return route.indexOf('*') != -1;
+    }
+
+    private static String[] segments(String route) {
+        return route.substring(1).split("/", -1);
+    }
+
+    private static final class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        volatile Node wildcard;
+        volatile AbstractRoute route;
+        volatile AbstractRoute catchAll;
+
+        Node child(String segment) {
+            return children.computeIfAbsent(segment, s -> new Node());
+        }
+
+        Node wildcard() {
+            if (wildcard == null) wildcard = new Node();
+            return wildcard;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.github.voxxin.web;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request and connection statistics of a {@link WebServer}. Counters are {@link LongAdder}s and latencies go into
+ * {@link LatencyHistogram}s, so recording a request neither locks nor allocates once its route has been seen.
+ * <p>
+ * Requests are counted per route and status class, and per status code across all routes. Files of public
+ * directories are counted together under the route {@value #STATIC_ROUTE}, so a large directory does not turn into
+ * thousands of series, and requests no route matched are counted under {@value #UNMATCHED_ROUTE}.
+ */
+public final class ServerMetrics {
+    public static final String STATIC_ROUTE = "static";
+    public static final String UNMATCHED_ROUTE = "unmatched";
+    static final int STATUS_LINE_PREFIX = "HTTP/1.1 200".length();
+    private static final int MAX_STATUS = 600;
+    private static final String[] STATUS_CLASSES = {"unknown", "1xx", "2xx", "3xx", "4xx", "5xx"};
+    private static final double[] BUCKET_SECONDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final WebServer server;
+    private final ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final LongAdder[] statuses = new LongAdder[MAX_STATUS];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    ServerMetrics(WebServer server) {
+        this.server = server;
+        for (int i = 0; i < statuses.length; i++) statuses[i] = new LongAdder();
+    }
+
+    /**
+     * Record a request that was answered.
+     *
+     * @param route   The route that answered, or null if no route matched.
+     * @param status  The status code of the response, or 0 if it is not known.
+     * @param latency The time from reading the request to answering it in nanoseconds.
+     */
+    void record(AbstractRoute route, int status, long latency) {
+        String name = route == null ? UNMATCHED_ROUTE : route instanceof FilePathRoute ? STATIC_ROUTE : route.route;
+        RouteMetrics metrics = routes.get(name);
+        if (metrics == null) metrics = routes.computeIfAbsent(name, n -> new RouteMetrics());
+
+        if (status < 100 || status >= MAX_STATUS) status = 0;
+        statuses[status].increment();
+        metrics.requests[status / 100].increment();
+        metrics.latency.record(latency);
+    }
+
+    /**
+     * Record an error response sent before a request could be read, such as 400 Bad Request.
+     *
+     * @param status The status code of the response.
+     */
+    void recordError(int status) {
+        statuses[status].increment();
+    }
+
+    void received(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void sent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Get the number of responses sent with a status code.
+     *
+     * @param status The status code.
+     * @return The number of responses.
+     */
+    public long getResponses(int status) {
+        return status >= 100 && status < MAX_STATUS ? statuses[status].sum() : 0;
+    }
+
+    /**
+     * Get the number of requests answered by a route.
+     *
+     * @param route The route path, {@link #STATIC_ROUTE} or {@link #UNMATCHED_ROUTE}.
+     * @return The number of requests.
+     */
+    public long getRequests(String route) {
+        RouteMetrics metrics = routes.get(route);
+        if (metrics == null) return 0;
+        long total = 0;
+        for (LongAdder requests : metrics.requests) total += requests.sum();
+        return total;
+    }
+
+    /**
+     * Get the latencies of a route.
+     *
+     * @param route The route path, {@link #STATIC_ROUTE} or {@link #UNMATCHED_ROUTE}.
+     * @return The histogram, or null if the route has not answered a request yet.
+     */
+    public LatencyHistogram getLatency(String route) {
+        RouteMetrics metrics = routes.get(route);
+        return metrics != null ? metrics.latency : null;
+    }
+
+    /**
+     * Get the number of bytes read from clients.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Get the number of bytes written to clients.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Get the number of open connections.
+     *
+     * @return The number of connections.
+     */
+    public int getActiveConnections() {
+        AdmissionControl admission = server.getAdmission();
+        return admission != null ? admission.connections() : 0;
+    }
+
+    /**
+     * Get the number of requests waiting for a worker thread.
+     *
+     * @return The queue depth.
+     */
+    public int getQueuedRequests() {
+        AdmissionControl admission = server.getAdmission();
+        return admission != null ? admission.queued() : 0;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format.
+     *
+     * @param out Where to write the metrics.
+     * @throws IOException If writing fails.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Map<String, RouteMetrics> sorted = new TreeMap<>(routes);
+
+        header(out, "easyweblib_requests_total", "counter", "Requests answered, by route and status class.");
+        for (Map.Entry<String, RouteMetrics> entry : sorted.entrySet()) {
+            LongAdder[] requests = entry.getValue().requests;
+            for (int i = 0; i < requests.length; i++) {
+                long count = requests[i].sum();
+                if (count == 0) continue;
+                out.append("easyweblib_requests_total{route=\"").append(escape(entry.getKey()))
+                        .append("\",status=\"").append(STATUS_CLASSES[i]).append("\"} ").append(Long.toString(count)).append('\n');
+            }
+        }
+
+        header(out, "easyweblib_responses_total", "counter", "Responses sent, by status code.");
+        for (int status = 0; status < statuses.length; status++) {
+            long count = statuses[status].sum();
+            if (count == 0) continue;
+            out.append("easyweblib_responses_total{code=\"").append(status == 0 ? STATUS_CLASSES[0] : Integer.toString(status))
+                    .append("\"} ").append(Long.toString(count)).append('\n');
+        }
+
+        header(out, "easyweblib_request_duration_seconds", "histogram", "Time from reading a request to answering it, by route.");
+        for (Map.Entry<String, RouteMetrics> entry : sorted.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            String route = escape(entry.getKey());
+            for (double bound : BUCKET_SECONDS) {
+                out.append("easyweblib_request_duration_seconds_bucket{route=\"").append(route).append("\",le=\"").append(Double.toString(bound))
+                        .append("\"} ").append(Long.toString(latency.getCountAtOrBelow((long) (bound * 1_000_000)))).append('\n');
+            }
+            long count = latency.getCountAtOrBelow(Long.MAX_VALUE - 1);
+            out.append("easyweblib_request_duration_seconds_bucket{route=\"").append(route).append("\",le=\"+Inf\"} ").append(Long.toString(count)).append('\n');
+            out.append("easyweblib_request_duration_seconds_sum{route=\"").append(route).append("\"} ").append(Double.toString(latency.getSumMicros() / 1e6)).append('\n');
+            out.append("easyweblib_request_duration_seconds_count{route=\"").append(route).append("\"} ").append(Long.toString(count)).append('\n');
+        }
+
+        sample(out, "easyweblib_received_bytes_total", "counter", "Bytes read from clients.", getBytesIn());
+        sample(out, "easyweblib_sent_bytes_total", "counter", "Bytes written to clients.", getBytesOut());
+        sample(out, "easyweblib_connections_active", "gauge", "Open connections.", getActiveConnections());
+        sample(out, "easyweblib_requests_queued", "gauge", "Requests waiting for a worker thread.", getQueuedRequests());
+
+        AdmissionControl admission = server.getAdmission();
+        if (admission != null) {
+            sample(out, "easyweblib_requests_in_flight", "gauge", "Requests queued or running.", admission.inFlight());
+            sample(out, "easyweblib_requests_limit", "gauge", "Current limit on requests in flight.", admission.limit());
+            sample(out, "easyweblib_rejected_total", "counter", "Connections and requests answered with 503 Service Unavailable.", admission.rejected());
+        }
+
+        ConnectionTimeouts timeouts = server.getTimeouts();
+        if (timeouts != null) {
+            header(out, "easyweblib_timeouts_total", "counter", "Connections closed because a phase took too long.");
+            for (ConnectionTimeouts.Phase phase : ConnectionTimeouts.Phase.values()) {
+                out.append("easyweblib_timeouts_total{phase=\"").append(phase.name().toLowerCase(Locale.ROOT))
+                        .append("\"} ").append(Long.toString(timeouts.expiredCount(phase))).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Read the status code from the start of a response.
+     *
+     * @param response The response bytes.
+     * @param offset   Where the response starts.
+     * @param length   The number of bytes available, at least {@link #STATUS_LINE_PREFIX} to find the code.
+     * @return The status code, or 0 if the bytes do not start with a status line.
+     */
+    static int status(byte[] response, int offset, int length) {
+        if (length < STATUS_LINE_PREFIX || response[offset] != 'H' || response[offset + 8] != ' ') return 0;
+        int status = 0;
+        for (int i = offset + 9; i < offset + STATUS_LINE_PREFIX; i++) {
+            int digit = response[i] - '0';
+            if (digit < 0 || digit > 9) return 0;
+            status = status * 10 + digit;
+        }
+        return status;
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String type, String help, long value) throws IOException {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class RouteMetrics {
+        final LongAdder[] requests = new LongAdder[STATUS_CLASSES.length];
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        RouteMetrics() {
+            for (int i = 0; i < requests.length; i++) requests[i] = new LongAdder();
+        }
+    }
+}
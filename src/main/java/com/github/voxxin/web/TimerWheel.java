@@ -0,0 +1,223 @@
+package com.github.voxxin.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timer wheel that runs the timeouts of every connection on a single thread. Time is split into ticks and
+ * every timeout sits in the bucket of the tick its deadline falls in, so a tick only looks at the timeouts that
+ * may be due.
+ * <p>
+ * A {@link Timeout} is created once per connection and re-armed for every phase. Moving a deadline later is a
+ * single volatile write: the timeout stays in its bucket and is moved on when the bucket comes round. Only a deadline
+ * that moves earlier, or a timeout that is not in the wheel, goes through a queue to the timer thread.
+ * <p>
+ * Closing the wheel lets the timeouts that are still armed run out, so connections that outlive the server are still
+ * closed once they stall. Timeouts armed after the timer thread has stopped run at once.
+ */
+final class TimerWheel implements Runnable, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long origin = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean stopped = false;
+    private long tick;
+    private int size;
+
+    /**
+     * @param threadName The name of the timer thread.
+     * @param tickMillis The length of a tick, which is how late a timeout may run.
+     * @param wheelSize  The number of buckets, rounded up to a power of two.
+     */
+    TimerWheel(String threadName, long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1];
+        this.mask = buckets.length - 1;
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Get the wheel's clock, which only moves forward.
+     *
+     * @return The time in milliseconds.
+     */
+    long now() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+
+    /**
+     * Create a timeout that is not armed yet.
+     *
+     * @param task Runs on the timer thread when the timeout expires. It must be quick and must not block.
+     * @return The timeout.
+     */
+    Timeout newTimeout(Runnable task) {
+        return new Timeout(this, task);
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running || size > 0 || !pending.isEmpty()) {
+            next += tickMillis * 1_000_000;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                timeout.queued.set(false);
+                schedule(timeout);
+            }
+            expire();
+            tick++;
+        }
+        stopped = true;
+    }
+
+    /**
+     * Stop the timer thread once every armed timeout has run out or was disarmed.
+     */
+    @Override
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * Run the timeouts due in the current tick, and move those whose deadline was pushed back on to later buckets.
+     */
+    private void expire() {
+        int index = (int) (tick & mask);
+        Timeout timeout = buckets[index];
+        buckets[index] = null;
+        long end = (tick + 1) * tickMillis;
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            timeout.scheduled = 0;
+            size--;
+
+            long deadline = timeout.deadline.get();
+            if (deadline != 0 && deadline <= end) {
+                if (timeout.deadline.compareAndSet(deadline, 0)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Error occurred while running timeout: {}", e.getMessage());
+                    }
+                } else {
+                    schedule(timeout);
+                }
+            } else if (deadline != 0) {
+                schedule(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Put a timeout into the bucket of its deadline, unless it already sits in a bucket that comes round in time.
+     */
+    private void schedule(Timeout timeout) {
+        long deadline = timeout.deadline.get();
+        if (deadline == 0) return;
+
+        long due = Math.max(deadline / tickMillis, tick + 1);
+        if (timeout.scheduled != 0 && timeout.scheduled <= due * tickMillis) return;
+        if (timeout.scheduled != 0) unlink(timeout);
+
+        int index = (int) (due & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+        timeout.bucket = index;
+        timeout.scheduled = Math.max(1, due * tickMillis);
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        Timeout previous = null;
+        Timeout current = buckets[timeout.bucket];
+        while (current != null && current != timeout) {
+            previous = current;
+            current = current.next;
+        }
+        if (current == null) return;
+        if (previous == null) buckets[timeout.bucket] = timeout.next;
+        else previous.next = timeout.next;
+        timeout.next = null;
+        timeout.scheduled = 0;
+        size--;
+    }
+
+    /**
+     * Re-armable timeout of a {@link TimerWheel}.
+     */
+    static final class Timeout {
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final AtomicLong deadline = new AtomicLong();
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        // Owned by the timer thread, except that other threads read scheduled to skip the queue.
+        private volatile long scheduled;
+        private Timeout next;
+        private int bucket;
+
+        private Timeout(TimerWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Expire after the given delay, replacing any earlier deadline.
+         *
+         * @param delayMillis The delay in milliseconds, at least one tick.
+         */
+        void arm(long delayMillis) {
+            if (wheel.stopped) {
+                task.run();
+                return;
+            }
+            long at = wheel.now() + Math.max(delayMillis, 1);
+            deadline.set(at);
+            long in = scheduled;
+            if ((in == 0 || at < in) && queued.compareAndSet(false, true)) wheel.pending.add(this);
+        }
+
+        /**
+         * Check whether the timeout is armed, which it no longer is once it expired.
+         *
+         * @return Whether the timeout is armed.
+         */
+        boolean isArmed() {
+            return deadline.get() != 0;
+        }
+
+        /**
+         * Stop the timeout from expiring until it is armed again.
+         */
+        void disarm() {
+            deadline.set(0);
+        }
+    }
+}
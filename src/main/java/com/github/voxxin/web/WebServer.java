@@ -1,15 +1,20 @@
 package com.github.voxxin.web;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import com.github.voxxin.web.request.HttpRequestParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,9 +24,61 @@ public class WebServer {
     protected final Logger LOGGER = LoggerFactory.getLogger(WebServer.class);
     private int port;
     private AbstractRoute errorRoute = null;
-    public ArrayList<AbstractRoute> routes = new ArrayList<>();
-    private ServerSocket webServer;
+    public final RouteRegistry routes = new RouteRegistry();
+    private ServerSocketChannel webServer;
     public Thread webServerThread;
+    private DispatchMode dispatchMode = DispatchMode.THREAD_POOL;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private ExecutorService customExecutor = null;
+    private ExecutorService executor;
+    private boolean keepAlive = true;
+    private int keepAliveTimeout = 15000;
+    private int headerTimeout = 10000;
+    private int bodyTimeout = 30000;
+    private int writeTimeout = 30000;
+    private ConnectionTimeouts timeouts;
+    private int maxRequestsPerConnection = 100;
+    private long maxBodySize = HttpRequestParser.DEFAULT_MAX_BODY_SIZE;
+    private Transport transport = Transport.BLOCKING;
+    private int selectorThreads = Runtime.getRuntime().availableProcessors();
+    private NioServer nioServer;
+    private FileMode fileMode = FileMode.MEMORY;
+    private String cacheControl = FilePathRoute.DEFAULT_CACHE_CONTROL;
+    private final AssetCache assetCache = new AssetCache(AssetCache.DEFAULT_MAX_BYTES);
+    private boolean watchPublicDirs = false;
+    private final List<PublicDirectoryWatcher> watchers = new CopyOnWriteArrayList<>();
+    private int maxConnections = AdmissionControl.UNLIMITED;
+    private int maxQueuedRequests = AdmissionControl.DEFAULT_MAX_QUEUED;
+    private int acceptBacklog = 0;
+    private int retryAfter = 1;
+    private boolean adaptiveLimit = false;
+    private AdmissionControl admission;
+    private final ServerMetrics metrics = new ServerMetrics(this);
+
+    static final byte[] BAD_REQUEST = new FormattedResponse()
+            .statusCode(400)
+            .statusMessage("Bad Request")
+            .contentType("text/plain")
+            .content("Bad Request")
+            .addHeader("Connection", "close")
+            .build();
+
+    static final byte[] PAYLOAD_TOO_LARGE = new FormattedResponse()
+            .statusCode(413)
+            .statusMessage("Payload Too Large")
+            .contentType("text/plain")
+            .content("Payload Too Large")
+            .addHeader("Connection", "close")
+            .build();
+
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NOT_FOUND = new FormattedResponse()
+            .statusCode(404)
+            .statusMessage("Not Found")
+            .contentType("text/plain")
+            .content("Not Found")
+            .build();
 
     public WebServer(int port) {
         this.port = port;
@@ -32,73 +89,502 @@ public class WebServer {
         this.routes.addAll(Arrays.asList(routes));
     }
 
+    /**
+     * Set how accepted connections are dispatched to worker threads.
+     *
+     * @param dispatchMode The dispatch mode.
+     * @return The WebServer instance.
+     */
+    public WebServer dispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    /**
+     * Set the number of platform threads used by {@link DispatchMode#THREAD_POOL}.
+     *
+     * @param workerThreads The maximum number of worker threads.
+     * @return The WebServer instance.
+     */
+    public WebServer workerThreads(int workerThreads) {
+        if (workerThreads < 1) throw new IllegalArgumentException("workerThreads must be at least 1");
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * Use a caller supplied executor for connection handling instead of the one created by the dispatch mode.
+     * The caller keeps ownership of the executor and is responsible for shutting it down.
+     *
+     * @param executor The executor, or null to fall back to the dispatch mode.
+     * @return The WebServer instance.
+     */
+    public WebServer executor(ExecutorService executor) {
+        this.customExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Enable or disable HTTP persistent connections.
+     *
+     * @param keepAlive Whether connections may serve more than one request.
+     * @return The WebServer instance.
+     */
+    public WebServer keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Set how long a persistent connection may sit idle between requests before it is closed.
+     *
+     * @param keepAliveTimeout The idle timeout in milliseconds.
+     * @return The WebServer instance.
+     */
+    public WebServer keepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    /**
+     * Set how long a client may take to send the request line and headers, counted from the first byte of the
+     * request, or from accepting the connection for its first request. Clients that trickle headers are closed
+     * once it runs out.
+     *
+     * @param headerTimeout The header timeout in milliseconds, or 0 for none.
+     * @return The WebServer instance.
+     */
+    public WebServer headerTimeout(int headerTimeout) {
+        this.headerTimeout = headerTimeout;
+        return this;
+    }
+
+    /**
+     * Set how long a client may pause while sending a request body.
+     *
+     * @param bodyTimeout The body timeout in milliseconds, or 0 for none.
+     * @return The WebServer instance.
+     */
+    public WebServer bodyTimeout(int bodyTimeout) {
+        this.bodyTimeout = bodyTimeout;
+        return this;
+    }
+
+    /**
+     * Set how long a client may stop reading while a response is written to it.
+     *
+     * @param writeTimeout The write timeout in milliseconds, or 0 for none.
+     * @return The WebServer instance.
+     */
+    public WebServer writeTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+        return this;
+    }
+
+    /**
+     * Set how many requests a single connection may serve before the server closes it.
+     *
+     * @param maxRequestsPerConnection The maximum number of requests per connection.
+     * @return The WebServer instance.
+     */
+    public WebServer maxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 1) throw new IllegalArgumentException("maxRequestsPerConnection must be at least 1");
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    /**
+     * Set the largest request body the server accepts. Larger requests are answered with 413 Payload Too Large.
+     *
+     * @param maxBodySize The maximum decoded body size in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer maxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Set the transport used to accept and serve connections.
+     *
+     * @param transport The transport.
+     * @return The WebServer instance.
+     */
+    public WebServer transport(Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Set the number of event loops used by {@link Transport#NIO}.
+     *
+     * @param selectorThreads The number of selector threads.
+     * @return The WebServer instance.
+     */
+    public WebServer selectorThreads(int selectorThreads) {
+        if (selectorThreads < 1) throw new IllegalArgumentException("selectorThreads must be at least 1");
+        this.selectorThreads = selectorThreads;
+        return this;
+    }
+
+    /**
+     * Set how files of {@link PathType#EXTERNAL} directories added afterwards are served. The mode can be changed
+     * between calls to {@link #addPublicDirPath}, for example to map a small directory of hot files and stream a
+     * large media directory.
+     *
+     * @param fileMode The file mode.
+     * @return The WebServer instance.
+     */
+    public WebServer fileMode(FileMode fileMode) {
+        this.fileMode = fileMode;
+        return this;
+    }
+
+    /**
+     * Set the {@code Cache-Control} header sent with files of public directories added afterwards. Every file
+     * carries an {@code ETag} and, where known, a {@code Last-Modified} date, so the default {@code no-cache}
+     * lets browsers keep files and revalidate them with cheap {@code 304 Not Modified} responses.
+     *
+     * @param cacheControl The header value, or null to leave the header out.
+     * @return The WebServer instance.
+     */
+    public WebServer cacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+        return this;
+    }
+
+    /**
+     * Watch {@link PathType#EXTERNAL} directories added afterwards for changes. Added, changed and deleted files
+     * are picked up while the server keeps serving: only their routes are replaced or removed, and their entity
+     * tags and compressed variants are computed again.
+     *
+     * @param watchPublicDirs Whether to watch public directories.
+     * @return The WebServer instance.
+     */
+    public WebServer watchPublicDirs(boolean watchPublicDirs) {
+        this.watchPublicDirs = watchPublicDirs;
+        return this;
+    }
+
+    /**
+     * Set how much memory the responses of {@link PathType#INTERNAL} files may use. Internal files are loaded on
+     * their first request and the least recently used ones are dropped once the cache is full. Internal files larger
+     * than the cache are rejected when their directory is added, so set the size before adding it.
+     *
+     * @param assetCacheSize The maximum cache size in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer assetCacheSize(long assetCacheSize) {
+        this.assetCache.maxBytes(assetCacheSize);
+        return this;
+    }
+
+    /**
+     * Set how many connections may be open at once. Connections beyond the limit are answered with
+     * {@code 503 Service Unavailable} and closed right after they are accepted.
+     *
+     * @param maxConnections The maximum number of open connections.
+     * @return The WebServer instance.
+     */
+    public WebServer maxConnections(int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be at least 1");
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Set how many requests may wait for a free worker thread. Requests beyond the limit are answered with
+     * {@code 503 Service Unavailable} at once instead of queueing behind the others. With {@link Transport#BLOCKING}
+     * every connection holds a worker thread while it is open, so the limit applies to connections waiting for one.
+     * Defaults to 1024, so an overloaded server sheds load instead of building an ever longer queue.
+     *
+     * @param maxQueuedRequests The maximum number of waiting requests.
+     * @return The WebServer instance.
+     */
+    public WebServer maxQueuedRequests(int maxQueuedRequests) {
+        if (maxQueuedRequests < 0) throw new IllegalArgumentException("maxQueuedRequests must not be negative");
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    /**
+     * Set how many connections the operating system may hold for the server before they are accepted.
+     *
+     * @param acceptBacklog The backlog, or 0 for the system default.
+     * @return The WebServer instance.
+     */
+    public WebServer acceptBacklog(int acceptBacklog) {
+        if (acceptBacklog < 0) throw new IllegalArgumentException("acceptBacklog must not be negative");
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    /**
+     * Set the {@code Retry-After} delay sent with {@code 503 Service Unavailable} responses.
+     *
+     * @param retryAfter The delay in seconds.
+     * @return The WebServer instance.
+     */
+    public WebServer retryAfter(int retryAfter) {
+        if (retryAfter < 0) throw new IllegalArgumentException("retryAfter must not be negative");
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /**
+     * Limit the number of requests in flight based on how long they take. The limit starts at the number of worker
+     * threads, grows while latency stays close to the lowest seen and shrinks once requests start to queue up, so
+     * spikes are shed with {@code 503 Service Unavailable} before they turn into long waits. The fixed limits still
+     * apply on top of it.
+     *
+     * @param adaptiveLimit Whether to adapt the limit to observed latency.
+     * @return The WebServer instance.
+     */
+    public WebServer adaptiveLimit(boolean adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+        return this;
+    }
+
+    /**
+     * Decide whether a connection stays open after answering a request.
+     *
+     * @param request The request that was just read.
+     * @param served  The number of requests read on the connection so far, including this one.
+     * @return Whether the connection should be kept open.
+     */
+    boolean shouldKeepAlive(FormattedRequest request, int served) {
+        if (!keepAlive || served >= maxRequestsPerConnection) return false;
+
+        String connection = request.getHeader("Connection");
+        if ("HTTP/1.0".equals(request.getHttpVersion())) {
+            return hasToken(connection, "keep-alive");
+        }
+        return !hasToken(connection, "close");
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header == null) return false;
+        for (String part : header.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+
+    ConnectionTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    HttpRequestParser newRequestParser() {
+        return new HttpRequestParser(HttpRequestParser.DEFAULT_MAX_HEAD_SIZE, maxBodySize);
+    }
+
+    /**
+     * Check whether the client waits for an interim 100 Continue before sending the request body.
+     *
+     * @param request The request.
+     * @return Whether a 100 Continue should be sent.
+     */
+    static boolean expectsContinue(FormattedRequest request) {
+        return "HTTP/1.1".equals(request.getHttpVersion()) && "100-continue".equalsIgnoreCase(request.getHeader("Expect"));
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Get the request and connection statistics of the server. Serve them with a {@link MetricsRoute}.
+     *
+     * @return The metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    private AdmissionControl createAdmission() {
+        int workers = AdmissionControl.UNLIMITED;
+        if (executor instanceof ThreadPoolExecutor) workers = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+
+        AdmissionControl.AdaptiveLimit limit = null;
+        if (adaptiveLimit) {
+            int initial = workers != AdmissionControl.UNLIMITED ? workers : Runtime.getRuntime().availableProcessors() * 2;
+            limit = new AdmissionControl.AdaptiveLimit(initial, 1, AdmissionControl.UNLIMITED);
+        }
+        return new AdmissionControl(maxConnections, workers, maxQueuedRequests, limit, retryAfter);
+    }
+
     /**
      * Start the web server.
      */
     public void start() {
+        ServerSocketChannel server = bind();
+        // For port 0 the system picked a free port, which is reported from now on.
+        this.port = server.socket().getLocalPort();
+        this.executor = createExecutor();
+        this.admission = createAdmission();
+        this.timeouts = new ConnectionTimeouts("EasyWebLib-timer-" + port, keepAliveTimeout, headerTimeout, bodyTimeout, writeTimeout);
+        if (transport == Transport.NIO) {
+            try {
+                this.nioServer = new NioServer(this, server, selectorThreads);
+                webServerThread = nioServer.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        this.webServer = server;
         webServerThread = new Thread(() -> {
             try {
-                if (this.webServer == null) this.webServer = new ServerSocket(port);
+                AdmissionControl admission = this.admission;
                 this.LOGGER.info("Started listening on port: {}", port);
-                while (!this.webServer.isClosed()) {
-                    try (Socket clientSocket = this.webServer.accept();
-                         BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8))) {
-
-                        List<String> headers = new ArrayList<>();
-                        String line;
-                        int contentLength = -1;
-                        while ((line = in.readLine()) != null && !line.isEmpty()) {
-                            headers.add(line);
-                            if (line.startsWith("Content-Length: ")) {
-                                contentLength = Integer.parseInt(line.substring(16).trim());
-                            }
-                        }
-
-                        if (contentLength > 0) {
-                            char[] buffer = new char[contentLength];
-                            in.read(buffer);
-                            headers.add(0, String.valueOf(buffer));
-                        }
-
-                        FormattedRequest formattedRequest = !headers.isEmpty() ? new FormattedRequest(headers) : null;
-
-                        this.routes.stream()
-                                .filter(r -> formattedRequest != null && r.route.equals(formattedRequest.getPath()))
-                                .findAny()
-                                .ifPresentOrElse(
-                                        r -> r.handleRequest(formattedRequest, clientSocket),
-                                        () -> {
-                                            if (errorRoute != null) {
-                                                errorRoute.handleRequest(formattedRequest, clientSocket);
-                                            }
-                                        }
-                                );
+                while (server.isOpen()) {
+                    SocketChannel clientChannel;
+                    try {
+                        clientChannel = server.accept();
+                    } catch (IOException e) {
+                        if (!server.isOpen()) break;
+                        throw e;
+                    }
+
+                    if (!admission.openConnection()) {
+                        admission.reject(clientChannel);
+                        continue;
+                    }
+                    if (!admission.admit()) {
+                        admission.closeConnection();
+                        admission.reject(clientChannel);
+                        continue;
+                    }
+                    try {
+                        this.executor.execute(new ClientConnection(this, clientChannel, System.nanoTime()));
+                    } catch (RejectedExecutionException e) {
+                        admission.finish();
+                        admission.closeConnection();
+                        clientChannel.close();
                     }
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
+        }, "EasyWebLib-acceptor-" + port);
 
         webServerThread.start();
     }
 
     /**
-     * Close the web server.
+     * Open the server channel, so connections are accepted as soon as {@link #start()} returns.
+     */
+    private ServerSocketChannel bind() {
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                server.bind(new InetSocketAddress(port), acceptBacklog);
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            return server;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Find the route that answers a request, falling back to the error route.
+     *
+     * @param request The formatted request.
+     * @return The route, or null if neither a route nor an error route is set.
+     */
+    AbstractRoute route(FormattedRequest request) {
+        AbstractRoute route = this.routes.find(request.getPath());
+        return route != null ? route : errorRoute;
+    }
+
+    /**
+     * Run a route, or answer 404 Not Found without one.
+     *
+     * @param route        The route from {@link #route(FormattedRequest)}.
+     * @param request      The formatted request.
+     * @param outputStream The output stream to write the response.
+     * @throws IOException If an I/O error occurs.
+     */
+    void dispatch(AbstractRoute route, FormattedRequest request, OutputStream outputStream) throws IOException {
+        if (route != null) {
+            route.handleRequest(request, outputStream);
+        } else {
+            outputStream.write(NOT_FOUND);
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (customExecutor != null) return customExecutor;
+
+        if (dispatchMode == DispatchMode.VIRTUAL_THREADS) {
+            try {
+                // Looked up reflectively so the library still targets Java 17.
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                LOGGER.warn("Virtual threads require Java 21+, falling back to a thread pool of {} threads", workerThreads);
+            }
+        }
+
+        // Admission control keeps at most workerThreads + maxQueuedRequests tasks in flight, so the queue never has
+        // to hold more than that, even while finished tasks are still handing their thread back.
+        AtomicInteger threadCount = new AtomicInteger();
+        int capacity = (int) Math.min(Integer.MAX_VALUE, (long) workerThreads + maxQueuedRequests);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(capacity),
+                r -> new Thread(r, "EasyWebLib-worker-" + port + "-" + threadCount.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Close the web server and stop watching public directories.
      */
     public void close() {
+        closeServer();
+        for (PublicDirectoryWatcher watcher : watchers) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error closing directory watcher: {}", e.getMessage());
+            }
+        }
+        watchers.clear();
+    }
+
+    private void closeServer() {
         try {
-            if (webServer != null && !webServer.isClosed()) {
+            if (webServer != null && webServer.isOpen()) {
                 webServer.close();
                 webServer = null;
             }
+            if (nioServer != null) {
+                nioServer.close();
+                nioServer = null;
+            }
+            if (executor != null) {
+                if (executor != customExecutor) executor.shutdown();
+                executor = null;
+            }
+            if (timeouts != null) {
+                timeouts.close();
+                timeouts = null;
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Get the port number the server is listening on.
+     * Get the port number the server is listening on. A server created with port 0 listens on a free port picked
+     * when it is started.
      *
      * @return The port number.
      */
@@ -114,7 +600,7 @@ public class WebServer {
     public void changePort(int newPort) {
         if (this.port != newPort) {
             port = newPort;
-            this.close();
+            this.closeServer();
             this.start();
         }
     }
@@ -132,7 +618,14 @@ public class WebServer {
         switch (pathType) {
             case INTERNAL:
             case EXTERNAL:
-                new PublicFileHandling(callingClass, routes, dirPath, publicPath, pathType, directoryPosition);
+                PublicFileHandling publicFiles = new PublicFileHandling(callingClass, routes, assetCache, dirPath, publicPath, pathType, directoryPosition, fileMode, cacheControl);
+                if (watchPublicDirs && pathType == PathType.EXTERNAL) {
+                    try {
+                        watchers.add(new PublicDirectoryWatcher(publicFiles, "EasyWebLib-watcher-" + port + "-" + watchers.size()));
+                    } catch (IOException e) {
+                        LOGGER.error("Could not watch {}: {}", dirPath, e.getMessage());
+                    }
+                }
                 break;
             default:
                 LOGGER.error("Invalid path type: {}", pathType);
@@ -140,7 +633,37 @@ public class WebServer {
     }
 
     public void addPublicDirPath(byte[] bytes, String publicPath) {
-        new PublicFileHandling(routes, bytes, publicPath, INTERNAL, DirectoryPosition.CURRENT);
+        new PublicFileHandling(routes, bytes, publicPath, INTERNAL, DirectoryPosition.CURRENT, FileMode.MEMORY, cacheControl);
+    }
+
+    /**
+     * Enum representing how accepted connections are handed off to worker threads.
+     */
+    public enum DispatchMode {
+        /**
+         * Handles connections on a bounded pool of platform threads.
+         */
+        THREAD_POOL,
+
+        /**
+         * Handles every connection on its own virtual thread. Requires Java 21+, otherwise falls back to {@link #THREAD_POOL}.
+         */
+        VIRTUAL_THREADS;
+    }
+
+    /**
+     * Enum representing how the server accepts and serves connections.
+     */
+    public enum Transport {
+        /**
+         * Serves each connection with blocking socket I/O on a worker thread.
+         */
+        BLOCKING,
+
+        /**
+         * Multiplexes connections over selector event loops, only using a worker thread while a route runs.
+         */
+        NIO;
     }
 
     /**
@@ -158,6 +681,26 @@ public class WebServer {
         EXTERNAL;
     }
 
+    /**
+     * Enum representing how the files of a public directory are kept and sent.
+     */
+    public enum FileMode {
+        /**
+         * Reads every file into memory when it is added and serves it from a pre-built response.
+         */
+        MEMORY,
+
+        /**
+         * Keeps only the path and size of every file and sends it from disk with {@link java.nio.channels.FileChannel#transferTo}.
+         */
+        TRANSFER,
+
+        /**
+         * Keeps only the path and size of every file and maps it into memory on its first request.
+         */
+        MAPPED;
+    }
+
     /**
      * Enum representing the position of the directory relative to the publicPath.
      */
@@ -3,13 +3,40 @@ package com.github.voxxin.web.element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
+/**
+ * Element of an HTML tree.
+ * <p>
+ * Elements are kept small because pages and parsed documents are made of many of them: tag and attribute names are
+ * shared through {@link HtmlNames}, attributes are stored as one flat array of names and values in the order they
+ * were added, and sub-elements as an array. Elements without attributes or sub-elements share the same empty arrays.
+ * <p>
+ * Elements that rarely change, such as the head, navigation or footer of a page, can be
+ * {@link #setMemoized(boolean) memoized}. A memoized element keeps its rendered HTML and writes it as it is until it or
+ * one of its sub-elements is changed through this class. A change only drops the cached HTML on the way from the
+ * changed element up to the memoized elements that contain it, so the next render reuses every subtree that did not
+ * change. To find its way up, an element remembers the elements it was rendered into while they were being cached,
+ * so only long-lived trees should be memoized. Rendering may run on several threads at once, but not at the same
+ * time as changes.
+ */
 public class HtmlElement {
-    private String tagName;
-    private Map<String, List<String>> attributes = new HashMap<>();
-    private List<HtmlElement> subElements = new ArrayList<>();
+    private static final Object[] NO_ATTRIBUTES = {};
+    private static final HtmlElement[] NO_SUB_ELEMENTS = {};
+
+    private final String tagName;
+    // Names at even indexes, each followed by its value: a String for one value, or a String[] for none or several.
+    private Object[] attributes = NO_ATTRIBUTES;
+    private HtmlElement[] subElements = NO_SUB_ELEMENTS;
+    private int subElementCount;
     private String subElement = null;
+    private boolean memoized;
+    private String rendered;
+    // Elements whose cached HTML contains this one: null, one HtmlElement, or an HtmlElement[].
+    private Object dependents;
 
     /**
      * Constructor for HtmlElement with sub-elements.
@@ -17,7 +44,7 @@ public class HtmlElement {
      * @param tagName     The tag name of the HTML element.
      */
     public HtmlElement(@NotNull String tagName) {
-        this.tagName = tagName;
+        this.tagName = HtmlNames.intern(tagName);
     }
 
     public String getTagName() {
@@ -25,82 +52,113 @@ public class HtmlElement {
     }
 
     public HtmlElement addAttributes(@NotNull String attribute, @NotNull List<String> values) {
-        if (this.attributes.containsKey(attribute)) this.attributes.get(attribute).addAll(values);
-        else this.attributes.put(attribute, values);
+        int index = attributeIndex(attribute);
+        if (index == -1) {
+            putAttribute(attribute, values.size() == 1 ? values.get(0) : values.toArray(new String[0]));
+        } else {
+            String[] existing = attributeValues(this.attributes[index + 1]);
+            String[] merged = Arrays.copyOf(existing, existing.length + values.size());
+            for (int i = 0; i < values.size(); i++) merged[existing.length + i] = values.get(i);
+            this.attributes[index + 1] = merged;
+        }
+        changed();
         return this;
     }
 
     public HtmlElement addAttributes(@NotNull HashMap<String, List<String>> values) {
-        for(String key : values.keySet()) {
-            if (this.attributes.containsKey(key)) this.attributes.get(key).addAll(values.get(key));
-            else this.attributes.put(key, values.get(key));
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            addAttributes(entry.getKey(), entry.getValue());
         }
         return this;
     }
 
     public HtmlElement addAttribute(@NotNull String attribute, @NotNull String value) {
-        if (this.attributes.containsKey(attribute)) this.attributes.get(attribute).add(value);
-        else this.attributes.put(attribute, List.of(value));
+        int index = attributeIndex(attribute);
+        if (index == -1) {
+            putAttribute(attribute, value);
+        } else {
+            String[] existing = attributeValues(this.attributes[index + 1]);
+            String[] merged = Arrays.copyOf(existing, existing.length + 1);
+            merged[existing.length] = value;
+            this.attributes[index + 1] = merged;
+        }
+        changed();
         return this;
     }
 
     public HtmlElement setAttributes(@NotNull HashMap<String, List<String>> values) {
-        this.attributes = values;
-        return this;
+        this.attributes = NO_ATTRIBUTES;
+        changed();
+        return addAttributes(values);
     }
 
     public HtmlElement setAttributes(@NotNull String attribute, @NotNull List<String> values) {
-        this.attributes = new HashMap<>();
-        this.attributes.put(attribute, values);
-        return this;
+        this.attributes = NO_ATTRIBUTES;
+        return addAttributes(attribute, values);
     }
 
     public HtmlElement setAttribute(@NotNull String attribute, @NotNull String value) {
-        this.attributes = new HashMap<>();
-        this.attributes.put(attribute, Collections.singletonList(value));
-        return this;
+        this.attributes = NO_ATTRIBUTES;
+        return addAttribute(attribute, value);
     }
 
 
     public List<String> getAttributes(@NotNull String attribute) {
-        return this.attributes.getOrDefault(attribute, Collections.emptyList());
+        int index = attributeIndex(attribute);
+        if (index == -1) return Collections.emptyList();
+        Object value = this.attributes[index + 1];
+        if (value instanceof String) return Collections.singletonList((String) value);
+        return Collections.unmodifiableList(Arrays.asList((String[]) value));
     }
 
     public String getAttributesAsString(@NotNull String attribute) {
-        return this.attributes.containsKey(attribute) ? String.join(" ", this.attributes.get(attribute)) : "";
+        int index = attributeIndex(attribute);
+        if (index == -1) return "";
+        Object value = this.attributes[index + 1];
+        return value instanceof String ? (String) value : String.join(" ", (String[]) value);
     }
 
     public void removeAttribute(@NotNull String attribute) {
-        this.attributes.remove(attribute);
+        int index = attributeIndex(attribute);
+        if (index == -1) return;
+        if (this.attributes.length == 2) {
+            this.attributes = NO_ATTRIBUTES;
+        } else {
+            Object[] remaining = new Object[this.attributes.length - 2];
+            System.arraycopy(this.attributes, 0, remaining, 0, index);
+            System.arraycopy(this.attributes, index + 2, remaining, index, remaining.length - index);
+            this.attributes = remaining;
+        }
+        changed();
     }
 
     public HtmlElement addSubElement(@NotNull HtmlElement element) {
-        this.subElements.add(element);
+        ensureSubElementCapacity(this.subElementCount + 1);
+        this.subElements[this.subElementCount++] = element;
         this.subElement = null;
+        changed();
         return this;
     }
 
     public HtmlElement addSubElements(@NotNull List<HtmlElement> elements) {
-        this.subElements.addAll(elements);
-        this.subElement = null;
-        return this;
+        return addSubElements(elements.toArray(NO_SUB_ELEMENTS));
     }
 
     public HtmlElement addSubElements(@NotNull HtmlElement... elements) {
-        this.subElements.addAll(List.of(elements));
+        ensureSubElementCapacity(this.subElementCount + elements.length);
+        System.arraycopy(elements, 0, this.subElements, this.subElementCount, elements.length);
+        this.subElementCount += elements.length;
         this.subElement = null;
+        changed();
         return this;
     }
 
     public HtmlElement addSubElementsFromString(@NotNull String elements) {
-        List<HtmlElement> builtElements = HtmlParser.parseHtmlString(elements);
-        this.subElements.addAll(builtElements);
-        this.subElement = null;
-        return this;
+        return addSubElements(HtmlParser.parseHtmlString(elements));
     }
 
     public List<HtmlElement> getSubElements() {
-        return Collections.unmodifiableList(this.subElements);
+        return new SubElements();
     }
 
     public String getStringSubElement() {
@@ -108,51 +166,250 @@ public class HtmlElement {
     }
 
     public HtmlElement setSubElements(@Nullable List<HtmlElement> elements) {
-        this.subElements = elements != null ? elements : new ArrayList<>();
+        HtmlElement[] replacement = elements != null ? elements.toArray(NO_SUB_ELEMENTS) : NO_SUB_ELEMENTS;
+        clearSubElements();
         this.subElement = null;
-        return this;
+        return addSubElements(replacement);
     }
 
     public HtmlElement setStringSubElement(String subElement) {
+        clearSubElements();
         this.subElement = subElement;
-        this.subElements = new ArrayList<>();
+        changed();
         return this;
     }
 
     public HtmlElement removeSubElement(@NotNull HtmlElement element) {
-        this.subElements.remove(element);
+        for (int i = 0; i < this.subElementCount; i++) {
+            if (this.subElements[i] == element) {
+                System.arraycopy(this.subElements, i + 1, this.subElements, i, this.subElementCount - i - 1);
+                this.subElements[--this.subElementCount] = null;
+                element.removeDependent(this);
+                changed();
+                break;
+            }
+        }
         return this;
     }
 
+    private int attributeIndex(String attribute) {
+        for (int i = 0; i < this.attributes.length; i += 2) {
+            if (this.attributes[i].equals(attribute)) return i;
+        }
+        return -1;
+    }
+
+    private void putAttribute(String attribute, Object value) {
+        Object[] grown = Arrays.copyOf(this.attributes, this.attributes.length + 2);
+        grown[grown.length - 2] = HtmlNames.intern(attribute);
+        grown[grown.length - 1] = value;
+        this.attributes = grown;
+    }
+
+    private static String[] attributeValues(Object value) {
+        return value instanceof String ? new String[]{(String) value} : (String[]) value;
+    }
+
+    private void clearSubElements() {
+        for (int i = 0; i < this.subElementCount; i++) this.subElements[i].removeDependent(this);
+        this.subElements = NO_SUB_ELEMENTS;
+        this.subElementCount = 0;
+    }
+
+    private void ensureSubElementCapacity(int capacity) {
+        if (capacity <= this.subElements.length) return;
+        // Most elements get their sub-elements in one call, so the first array is exactly as large as needed.
+        int grown = this.subElements.length == 0 ? capacity : Math.max(capacity, this.subElements.length + (this.subElements.length >> 1));
+        this.subElements = Arrays.copyOf(this.subElements, grown);
+    }
+
 
     /**
-     * Generate the HTML string representation of this HtmlElement.
+     * Set whether this element keeps its rendered HTML until it or one of its sub-elements changes.
      *
-     * @return The HTML string.
+     * @param memoized Whether to keep the rendered HTML.
+     * @return The HtmlElement instance.
      */
-    protected String htmlString() {
-        StringBuilder builder = new StringBuilder();
+    public HtmlElement setMemoized(boolean memoized) {
+        this.memoized = memoized;
+        if (!memoized) this.rendered = null;
+        return this;
+    }
+
+    public boolean isMemoized() {
+        return memoized;
+    }
+
+    /**
+     * Drop the cached HTML of this element and of the memoized elements that contain it.
+     */
+    private void changed() {
+        // Nothing is cached while a tree is being built, which is when most changes happen.
+        if (this.rendered == null && this.dependents == null) return;
+        Object dependents;
+        synchronized (this) {
+            this.rendered = null;
+            dependents = this.dependents;
+            // The elements above are rendered again before anything is cached, which links them again.
+            this.dependents = null;
+        }
+        if (dependents instanceof HtmlElement) {
+            ((HtmlElement) dependents).changed();
+        } else if (dependents != null) {
+            for (HtmlElement dependent : (HtmlElement[]) dependents) dependent.changed();
+        }
+    }
+
+    private synchronized void addDependent(HtmlElement dependent) {
+        if (this.dependents == null) {
+            this.dependents = dependent;
+        } else if (this.dependents instanceof HtmlElement) {
+            if (this.dependents != dependent) this.dependents = new HtmlElement[]{(HtmlElement) this.dependents, dependent};
+        } else {
+            HtmlElement[] dependents = (HtmlElement[]) this.dependents;
+            for (HtmlElement existing : dependents) {
+                if (existing == dependent) return;
+            }
+            HtmlElement[] grown = Arrays.copyOf(dependents, dependents.length + 1);
+            grown[dependents.length] = dependent;
+            this.dependents = grown;
+        }
+    }
 
-        builder.append("<").append(this.tagName);
-        if (this.attributes != null) {
-            for (String attributeKey : this.attributes.keySet()) {
-                builder.append(" ").append(attributeKey).append("=\"").append(this.getAttributesAsString(attributeKey)).append("\" ");
+    private synchronized void removeDependent(HtmlElement dependent) {
+        if (this.dependents == dependent) {
+            this.dependents = null;
+        } else if (this.dependents instanceof HtmlElement[]) {
+            HtmlElement[] dependents = (HtmlElement[]) this.dependents;
+            for (int i = 0; i < dependents.length; i++) {
+                if (dependents[i] != dependent) continue;
+                if (dependents.length == 2) {
+                    this.dependents = dependents[1 - i];
+                } else {
+                    HtmlElement[] remaining = new HtmlElement[dependents.length - 1];
+                    System.arraycopy(dependents, 0, remaining, 0, i);
+                    System.arraycopy(dependents, i + 1, remaining, i, remaining.length - i);
+                    this.dependents = remaining;
+                }
+                return;
             }
         }
-        builder.append(">");
+    }
 
-        if (!this.subElements.isEmpty()) {
-            for (HtmlElement element : this.subElements) {
-                builder.append("\n  ").append(element.htmlString());
+    /**
+     * Write the HTML of this HtmlElement and its sub-elements, walking the tree once. Memoized elements write their
+     * cached HTML instead of walking their sub-elements.
+     *
+     * @param out Where to write the HTML.
+     * @throws IOException If writing fails.
+     */
+    public void renderTo(@NotNull Appendable out) throws IOException {
+        render(out, null);
+    }
+
+    /**
+     * Write the HTML of this element.
+     *
+     * @param out    Where to write the HTML.
+     * @param parent The element this one is rendered into if the HTML is being cached, so that a change here can
+     *               drop it, or null.
+     * @throws IOException If writing fails.
+     */
+    void render(Appendable out, @Nullable HtmlElement parent) throws IOException {
+        if (parent != null) addDependent(parent);
+        if (!this.memoized) {
+            write(out, parent != null ? this : null);
+            return;
+        }
+
+        String rendered = this.rendered;
+        if (rendered == null) {
+            StringBuilder builder = new StringBuilder();
+            write(builder, this);
+            rendered = builder.toString();
+            this.rendered = rendered;
+        }
+        out.append(rendered);
+    }
+
+    private void write(Appendable out, @Nullable HtmlElement cachingParent) throws IOException {
+        out.append('<').append(this.tagName);
+        for (int i = 0; i < this.attributes.length; i += 2) {
+            out.append(' ').append((String) this.attributes[i]).append("=\"");
+            Object value = this.attributes[i + 1];
+            if (value instanceof String) {
+                out.append((String) value);
+            } else {
+                String[] values = (String[]) value;
+                for (int j = 0; j < values.length; j++) {
+                    if (j > 0) out.append(' ');
+                    out.append(values[j]);
+                }
             }
-            builder.append("\n");
+            out.append("\" ");
+        }
+        out.append('>');
+
+        if (this.subElementCount > 0) {
+            for (int i = 0; i < this.subElementCount; i++) {
+                out.append("\n  ");
+                this.subElements[i].render(out, cachingParent);
+            }
+            out.append('\n');
         } else if (this.subElement != null) {
-            builder.append(" ").append(this.subElement);
+            out.append(' ').append(this.subElement);
         }
 
-        builder.append("</").append(this.tagName).append(">");
+        out.append("</").append(this.tagName).append('>');
+    }
 
+    /**
+     * Write the HTML of this HtmlElement and its sub-elements as UTF-8, without building it as a string first.
+     * The stream is neither flushed nor closed.
+     *
+     * @param out Where to write the HTML.
+     * @throws IOException If writing fails.
+     */
+    public void renderTo(@NotNull OutputStream out) throws IOException {
+        Utf8Appender appender = Utf8Appender.open(out);
+        try {
+            renderTo(appender);
+            appender.finish();
+        } finally {
+            appender.release();
+        }
+    }
+
+    /**
+     * Generate the HTML string representation of this HtmlElement.
+     *
+     * @return The HTML string.
+     */
+    protected String htmlString() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            renderTo(builder);
+        } catch (IOException e) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException(e);
+        }
         return builder.toString();
     }
 
-}
\ No newline at end of file
+    /**
+     * Read-only view of the sub-elements that follows later changes.
+     */
+    private final class SubElements extends AbstractList<HtmlElement> implements RandomAccess {
+        @Override
+        public HtmlElement get(int index) {
+            Objects.checkIndex(index, subElementCount);
+            return subElements[index];
+        }
+
+        @Override
+        public int size() {
+            return subElementCount;
+        }
+    }
+
+}
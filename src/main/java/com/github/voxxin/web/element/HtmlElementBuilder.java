@@ -2,6 +2,9 @@ package com.github.voxxin.web.element;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -55,10 +58,44 @@ public class HtmlElementBuilder {
      */
     public String build() {
         StringBuilder stringBuilder = new StringBuilder();
-        for (Object obj : elements) {
-            stringBuilder.append(obj instanceof HtmlElement ? ((HtmlElement) obj).htmlString() : obj).append("\n");
+        try {
+            renderTo(stringBuilder);
+        } catch (IOException e) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException(e);
         }
         return stringBuilder.toString();
     }
 
+    /**
+     * Write the HTML of the elements added to the builder, the same as {@link #build()} returns.
+     *
+     * @param out Where to write the HTML.
+     * @throws IOException If writing fails.
+     */
+    public void renderTo(@NotNull Appendable out) throws IOException {
+        for (Object obj : elements) {
+            if (obj instanceof HtmlElement) ((HtmlElement) obj).renderTo(out);
+            else out.append(String.valueOf(obj));
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Write the HTML of the elements added to the builder as UTF-8, without building it as a string first. The
+     * stream is neither flushed nor closed.
+     *
+     * @param out Where to write the HTML.
+     * @throws IOException If writing fails.
+     */
+    public void renderTo(@NotNull OutputStream out) throws IOException {
+        Utf8Appender appender = Utf8Appender.open(out);
+        try {
+            renderTo(appender);
+            appender.finish();
+        } finally {
+            appender.release();
+        }
+    }
+
 }
\ No newline at end of file
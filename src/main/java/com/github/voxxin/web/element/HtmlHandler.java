@@ -0,0 +1,50 @@
+package com.github.voxxin.web.element;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the parts of an HTML document in order as {@link HtmlParser#parse(String, HtmlHandler)} reads it, so a
+ * document can be processed without building an {@link HtmlElement} tree. Every method does nothing by default.
+ * <p>
+ * Tags are reported as they are written: an end tag is only reported if the document contains one, and nothing is
+ * inferred about elements that are never closed.
+ */
+public interface HtmlHandler {
+
+    /**
+     * Called for a start tag, or for a declaration such as {@code <!DOCTYPE html>} whose name starts with {@code !}.
+     *
+     * @param tagName     The tag name as written.
+     * @param attributes  The attributes with their whitespace separated values. Attributes without a value have
+     *                    no values.
+     * @param selfClosing Whether the tag ends with {@code />}.
+     */
+    default void startElement(String tagName, Map<String, List<String>> attributes, boolean selfClosing) {
+    }
+
+    /**
+     * Called for an end tag.
+     *
+     * @param tagName The tag name as written.
+     */
+    default void endElement(String tagName) {
+    }
+
+    /**
+     * Called for the text between tags, including the content of {@code script} and {@code style} elements.
+     * Character references are not decoded.
+     *
+     * @param text The text.
+     */
+    default void text(String text) {
+    }
+
+    /**
+     * Called for a comment.
+     *
+     * @param comment The text between {@code <!--} and {@code -->}.
+     */
+    default void comment(String comment) {
+    }
+}
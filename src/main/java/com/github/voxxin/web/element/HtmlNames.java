@@ -0,0 +1,30 @@
+package com.github.voxxin.web.element;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared copies of tag and attribute names, so the elements of a parsed document point at one string per name
+ * instead of each holding its own. The table stops growing at {@value #MAX_NAMES} names, after which unknown names
+ * are used as they are, so documents with made-up names cannot fill the heap.
+ */
+final class HtmlNames {
+    private static final int MAX_NAMES = 1024;
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+
+    private HtmlNames() {
+    }
+
+    /**
+     * Get the shared copy of a name.
+     *
+     * @param name The name.
+     * @return The shared copy, or the name itself if the table is full.
+     */
+    static String intern(String name) {
+        String interned = NAMES.get(name);
+        if (interned != null) return interned;
+        if (NAMES.size() >= MAX_NAMES) return name;
+        interned = NAMES.putIfAbsent(name, name);
+        return interned != null ? interned : name;
+    }
+}
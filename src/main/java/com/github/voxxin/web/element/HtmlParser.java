@@ -1,143 +1,294 @@
 package com.github.voxxin.web.element;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class HtmlParser {
+    private static final Map<String, List<String>> NO_ATTRIBUTES = Collections.emptyMap();
+
     /**
      * Parses the given HTML string and returns a list of HtmlElement objects representing the parsed content.
+     * <p>
+     * An element that is not closed before the element around it, or before the end of the document, has no content,
+     * and what followed its start tag belongs to the element around it. So does an element written as {@code <tag/>}.
+     * An element that contains other elements gets them as sub-elements and loses the text between them, and an
+     * element that only contains text gets that text as its string sub-element, exactly as written.
      *
      * @param  htmlString  the HTML string to be parsed
      * @return             a list of HtmlElement objects representing the parsed content
      */
     public static List<HtmlElement> parseHtmlString(String htmlString) {
-        return parseContent(htmlString);
+        TreeBuilder builder = new TreeBuilder();
+        parse(htmlString, builder);
+        return builder.finish();
     }
 
     /**
-     * Parses the given HTML string and returns a list of HtmlElement objects representing the parsed content.
+     * Reads the given HTML string from start to end and reports its tags, text and comments to a handler, without
+     * building a tree.
      *
-     * @param  html  the HTML string to be parsed
-     * @return       a list of HtmlElement objects representing the parsed content
+     * @param  html     the HTML string to be parsed
+     * @param  handler  receives the parts of the document in order
      */
-    private static List<HtmlElement> parseContent(String html) {
-        List<Tag> tags = new ArrayList<>();
-        List<HtmlElement> elements = new ArrayList<>();
-
-        int end = html.length() - 1;
-        int layer = 0;
-
-        while (end >= 0) {
-            int closingIndex = html.lastIndexOf('>', end);
-            int openingIndex = html.lastIndexOf('<', closingIndex);
-
-            if (openingIndex != -1 && closingIndex != -1) {
-                String tagString = html.substring(openingIndex + 1, closingIndex);
-                boolean isOpeningTag = !tagString.startsWith("/");
-                String tagName = isOpeningTag ? tagString.split("\\s+")[0] : tagString.substring(1);
-                String attributes = isOpeningTag ? tagString.substring(tagName.length()).trim() : "";
-                int rareLayer = html.contains("</" + tagName + ">") ? layer : layer+1;
-
-                tags.add(new Tag(tagName, attributes, isOpeningTag, openingIndex, closingIndex + 1, rareLayer));
-
-                if (isOpeningTag && html.contains("</" + tagName + ">")) {
-                    layer--;
-                } else if (!isOpeningTag) {
-                    layer++;
+    public static void parse(String html, HtmlHandler handler) {
+        int length = html.length();
+        int textStart = 0;
+        int position = 0;
+
+        while (position < length) {
+            int open = html.indexOf('<', position);
+            if (open == -1 || open + 1 >= length) break;
+            char next = html.charAt(open + 1);
+
+            if (html.startsWith("<!--", open)) {
+                int close = html.indexOf("-->", open + 4);
+                int end = close == -1 ? length : close;
+                text(html, textStart, open, handler);
+                handler.comment(html.substring(open + 4, end));
+                position = textStart = close == -1 ? length : close + 3;
+            } else if (next == '/') {
+                int close = html.indexOf('>', open + 2);
+                if (close == -1) break;
+                text(html, textStart, open, handler);
+                handler.endElement(html.substring(open + 2, close).trim());
+                position = textStart = close + 1;
+            } else if (Character.isLetter(next) || next == '!' || next == '?') {
+                int nameEnd = open + 1;
+                while (nameEnd < length && !isNameEnd(html, nameEnd)) nameEnd++;
+                String tagName = html.substring(open + 1, nameEnd);
+
+                Tag tag = new Tag();
+                // Declarations and processing instructions are kept as elements but their contents are skipped.
+                boolean declaration = next == '!' || next == '?';
+                int close = declaration ? html.indexOf('>', nameEnd) : readAttributes(html, nameEnd, tag);
+                if (close == -1) break;
+
+                text(html, textStart, open, handler);
+                handler.startElement(tagName, tag.attributes != null ? tag.attributes : NO_ATTRIBUTES, tag.selfClosing);
+                position = textStart = close + 1;
+
+                if (!tag.selfClosing && isRawText(tagName)) {
+                    int end = findEndTag(html, position, tagName);
+                    text(html, textStart, end, handler);
+                    position = textStart = end;
                 }
-                end = openingIndex - 1;
             } else {
-                break;
+                // A '<' that does not start a tag is text.
+                position = open + 1;
             }
         }
 
-        Collections.reverse(tags);
-
-        for (int i = 0; i < tags.size(); i++) {
-            Tag tag = tags.get(i);
+        text(html, textStart, length, handler);
+    }
 
-            if (tag.layer != 1 || !tag.isOpeningTag) continue;
+    /**
+     * Reads the attributes of a start tag.
+     *
+     * @return the index of the '>' that ends the tag, or -1 if the tag is not closed
+     */
+    private static int readAttributes(String html, int position, Tag tag) {
+        int length = html.length();
+        while (true) {
+            while (position < length && Character.isWhitespace(html.charAt(position))) position++;
+            if (position >= length) return -1;
 
-            boolean hasClosingTag = false;
-            int sameTagRepeats = 0;
-            for (int j = i + 1; j < tags.size(); j++) {
-                Tag closingTag = tags.get(j);
-                if (closingTag.isOpeningTag && closingTag.tagName.equals(tag.tagName)) {
-                    sameTagRepeats++;
-                    continue;
+            char c = html.charAt(position);
+            if (c == '>') return position;
+            if (c == '/') {
+                if (position + 1 < length && html.charAt(position + 1) == '>') {
+                    tag.selfClosing = true;
+                    return position + 1;
                 }
+                position++;
+                continue;
+            }
 
-                if (!closingTag.isOpeningTag && closingTag.tagName.equals(tag.tagName)) {
-                    if (sameTagRepeats > 0) {
-                        sameTagRepeats--;
-                        continue;
-                    }
-
-                    String content = html.substring(tag.closingIndex, closingTag.openingIndex);
+            int nameStart = position;
+            while (position < length && !isAttributeNameEnd(html.charAt(position))) position++;
+            String name = html.substring(nameStart, position);
 
-                    List<HtmlElement> subElements = parseContent(content);
-                    if (subElements.isEmpty()) elements.add(new HtmlElement(tag.tagName).addAttributes(parseAttributes(tag.attributes)).setStringSubElement(content));
-                    else elements.add(new HtmlElement(tag.tagName).addAttributes(parseAttributes(tag.attributes)).addSubElements(subElements));
+            while (position < length && Character.isWhitespace(html.charAt(position))) position++;
+            List<String> values = new ArrayList<>(1);
+            if (position < length && html.charAt(position) == '=') {
+                position++;
+                while (position < length && Character.isWhitespace(html.charAt(position))) position++;
+                if (position >= length) return -1;
 
-                    hasClosingTag = true;
-                    break;
+                char quote = html.charAt(position);
+                int valueStart;
+                int valueEnd;
+                if (quote == '"' || quote == '\'') {
+                    valueStart = position + 1;
+                    valueEnd = html.indexOf(quote, valueStart);
+                    if (valueEnd == -1) return -1;
+                    position = valueEnd + 1;
+                } else {
+                    valueStart = position;
+                    while (position < length && !Character.isWhitespace(html.charAt(position)) && html.charAt(position) != '>') position++;
+                    valueEnd = position;
                 }
+                splitValues(html, valueStart, valueEnd, values);
             }
 
-            if (!hasClosingTag) {
-                elements.add(new HtmlElement(tag.tagName).addAttributes(parseAttributes(tag.attributes)));
-            }
+            if (tag.attributes == null) tag.attributes = new LinkedHashMap<>();
+            tag.attributes.put(name, values);
         }
+    }
 
+    private static void splitValues(String html, int start, int end, List<String> values) {
+        int position = start;
+        while (position < end) {
+            while (position < end && Character.isWhitespace(html.charAt(position))) position++;
+            int valueStart = position;
+            while (position < end && !Character.isWhitespace(html.charAt(position))) position++;
+            if (position > valueStart) values.add(html.substring(valueStart, position));
+        }
+    }
 
-        return elements;
+    private static boolean isNameEnd(String html, int position) {
+        char c = html.charAt(position);
+        return Character.isWhitespace(c) || c == '>' || c == '/' && position + 1 < html.length() && html.charAt(position + 1) == '>';
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+
+    private static boolean isRawText(String tagName) {
+        return tagName.equalsIgnoreCase("script") || tagName.equalsIgnoreCase("style");
     }
 
     /**
-     * Parses the given attributes string and returns a list of attributes.
+     * Finds the end tag of a script or style element, whose content is not parsed as HTML.
      *
-     * @param  attributesString  the string containing the attributes
-     * @return                   a list of attributes
+     * @return the index of the end tag, or the length of the document if there is none
      */
-    private static HashMap<String, List<String>> parseAttributes(String attributesString) {
-        HashMap<String, List<String>> attributes = new HashMap<>();
+    private static int findEndTag(String html, int position, String tagName) {
+        int start = position;
+        while ((start = html.indexOf("</", start)) != -1) {
+            if (html.regionMatches(true, start + 2, tagName, 0, tagName.length())) return start;
+            start += 2;
+        }
+        return html.length();
+    }
 
-        if (attributesString == null || attributesString.isEmpty()) return attributes;
+    private static void text(String html, int start, int end, HtmlHandler handler) {
+        if (end > start) handler.text(html.substring(start, end));
+    }
 
-        Pattern attributePattern = Pattern.compile("(\\w+)\\s*=\\s*\"([^\"]*)\"");
-        Matcher matcher = attributePattern.matcher(attributesString);
+    private static final class Tag {
+        Map<String, List<String>> attributes;
+        boolean selfClosing;
+    }
 
-        while (matcher.find()) {
-            String attributeName = matcher.group(1);
-            String attributeValues = matcher.group(2);
+    /**
+     * Builds the HtmlElement tree from the events of the tokenizer with a stack of open elements. Every start tag
+     * opens an element, and one that is still open when the element around it closes is left empty instead.
+     */
+    private static final class TreeBuilder implements HtmlHandler {
+        private final List<HtmlElement> roots = new ArrayList<>();
+        private final ArrayList<Open> open = new ArrayList<>();
+        // How many elements of each name are open, so end tags without a start tag are skipped without a search.
+        private final Map<String, Integer> openNames = new HashMap<>();
+
+        @Override
+        public void startElement(String tagName, Map<String, List<String>> attributes, boolean selfClosing) {
+            HtmlElement element = new HtmlElement(tagName);
+            for (Map.Entry<String, List<String>> attribute : attributes.entrySet()) {
+                element.addAttributes(attribute.getKey(), attribute.getValue());
+            }
+
+            if (selfClosing) {
+                add(element);
+                return;
+            }
+            open.add(new Open(element));
+            openNames.merge(tagName, 1, Integer::sum);
+        }
+
+        @Override
+        public void endElement(String tagName) {
+            if (!openNames.containsKey(tagName)) return;
+
+            int index = open.size() - 1;
+            while (!open.get(index).element.getTagName().equals(tagName)) index--;
+            unclosed(index + 1);
+            Open closed = pop();
+            add(closed.finish());
+        }
+
+        @Override
+        public void text(String text) {
+            Open parent = peek();
+            if (parent != null) parent.text(text);
+        }
+
+        @Override
+        public void comment(String comment) {
+            Open parent = peek();
+            if (parent != null) parent.text("<!--" + comment + "-->");
+        }
 
-            List<String> values = Arrays.stream(attributeValues.split("\\s+"))
-                    .filter(val -> !val.isEmpty())
-                    .collect(Collectors.toList());
+        List<HtmlElement> finish() {
+            unclosed(0);
+            return roots;
+        }
+
+        /**
+         * Leave the open elements from the given depth up empty, and move what they contain to the element below
+         * them, in document order. Each element only contained what came before the next one opened, so they are
+         * moved from the bottom up, which keeps this linear however many there are.
+         */
+        private void unclosed(int depth) {
+            if (depth == open.size()) return;
+            Open parent = depth > 0 ? open.get(depth - 1) : null;
+            List<HtmlElement> target = parent != null ? parent.children : roots;
+            for (int i = depth; i < open.size(); i++) {
+                Open element = open.get(i);
+                target.add(element.element);
+                target.addAll(element.children);
+            }
+            while (open.size() > depth) pop();
+        }
 
-            attributes.put(attributeName, values);
+        private Open pop() {
+            Open element = open.remove(open.size() - 1);
+            openNames.computeIfPresent(element.element.getTagName(), (name, count) -> count > 1 ? count - 1 : null);
+            return element;
         }
 
-        return attributes;
+        private Open peek() {
+            return open.isEmpty() ? null : open.get(open.size() - 1);
+        }
+
+        private void add(HtmlElement element) {
+            Open parent = peek();
+            if (parent == null) roots.add(element);
+            else parent.children.add(element);
+        }
     }
 
-    static class Tag {
-        String tagName;
-        String attributes;
-        boolean isOpeningTag;
-        int openingIndex;
-        int closingIndex;
-        int layer;
-
-        public Tag(String tagName, String attributes, boolean isOpeningTag, int openingIndex, int closingIndex, int layer) {
-            this.tagName = tagName;
-            this.attributes = attributes;
-            this.isOpeningTag = isOpeningTag;
-            this.openingIndex = openingIndex;
-            this.closingIndex = closingIndex;
-            this.layer = layer;
+    private static final class Open {
+        final HtmlElement element;
+        final List<HtmlElement> children = new ArrayList<>();
+        private String text;
+        private StringBuilder texts;
+
+        Open(HtmlElement element) {
+            this.element = element;
+        }
+
+        void text(String text) {
+            if (this.text == null) {
+                this.text = text;
+                return;
+            }
+            if (texts == null) texts = new StringBuilder(this.text);
+            texts.append(text);
+        }
+
+        HtmlElement finish() {
+            if (!children.isEmpty()) return element.addSubElements(children);
+            return element.setStringSubElement(texts != null ? texts.toString() : text != null ? text : "");
         }
     }
 }
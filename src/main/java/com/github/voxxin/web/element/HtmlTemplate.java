@@ -0,0 +1,267 @@
+package com.github.voxxin.web.element;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page compiled from an {@link HtmlElement} tree once, so requests only fill in the parts that change. The static
+ * markup is rendered and encoded as UTF-8 when the template is compiled, and rendering writes those bytes as they are
+ * with the per-request values in between.
+ * <p>
+ * Slots mark where values go. {@link #slot(String)} can be used wherever the tree takes text, such as string
+ * sub-elements, attribute values and string elements of an {@link HtmlElementBuilder}, and
+ * {@link #slotElement(String)} wherever it takes a sub-element:
+ * <pre>{@code
+ * HtmlTemplate page = HtmlTemplate.compile(new HtmlElement("html").addSubElements(
+ *         new HtmlElement("head").addSubElement(new HtmlElement("title").setStringSubElement(HtmlTemplate.slot("title"))),
+ *         new HtmlElement("body").addSubElement(HtmlTemplate.slotElement("content"))));
+ *
+ * page.renderTo(outputStream, page.values().set("title", "Hello").set("content", new HtmlElement("p").setStringSubElement("Hi")));
+ * }</pre>
+ * Values are written as they are, like the rest of the tree. A slot that was not given a value renders as nothing.
+ */
+public final class HtmlTemplate {
+    private static final char SLOT_START = '\uE000';
+    private static final char SLOT_END = '\uE001';
+
+    private final byte[][] segments;
+    private final int[] slotPositions;
+    private final List<String> slots;
+    private final Map<String, Integer> slotIndexes;
+    private final int staticLength;
+
+    private HtmlTemplate(String html) {
+        List<byte[]> segments = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Map<String, Integer> slotIndexes = new HashMap<>();
+
+        int position = 0;
+        int start;
+        while ((start = html.indexOf(SLOT_START, position)) != -1) {
+            int end = html.indexOf(SLOT_END, start);
+            if (end == -1) break;
+            String name = html.substring(start + 1, end);
+            Integer index = slotIndexes.get(name);
+            if (index == null) {
+                index = slots.size();
+                slots.add(name);
+                slotIndexes.put(name, index);
+            }
+            segments.add(html.substring(position, start).getBytes(StandardCharsets.UTF_8));
+            positions.add(index);
+            position = end + 1;
+        }
+        segments.add(html.substring(position).getBytes(StandardCharsets.UTF_8));
+
+        this.segments = segments.toArray(new byte[0][]);
+        this.slotPositions = positions.stream().mapToInt(Integer::intValue).toArray();
+        this.slots = Collections.unmodifiableList(slots);
+        this.slotIndexes = slotIndexes;
+        int length = 0;
+        for (byte[] segment : this.segments) length += segment.length;
+        this.staticLength = length;
+    }
+
+    /**
+     * Compile an element tree into a template.
+     *
+     * @param element The root element, with slots where values go.
+     * @return The template.
+     */
+    public static HtmlTemplate compile(@NotNull HtmlElement element) {
+        StringBuilder html = new StringBuilder();
+        try {
+            element.renderTo(html);
+        } catch (IOException e) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException(e);
+        }
+        return new HtmlTemplate(html.toString());
+    }
+
+    /**
+     * Compile the elements of a builder into a template.
+     *
+     * @param builder The builder, with slots where values go.
+     * @return The template.
+     */
+    public static HtmlTemplate compile(@NotNull HtmlElementBuilder builder) {
+        return new HtmlTemplate(builder.build());
+    }
+
+    /**
+     * Get a slot marker to use as text in a tree that is compiled into a template.
+     *
+     * @param name The slot name.
+     * @return The marker.
+     */
+    public static String slot(@NotNull String name) {
+        if (name.isEmpty() || name.indexOf(SLOT_START) != -1 || name.indexOf(SLOT_END) != -1) {
+            throw new IllegalArgumentException("Invalid slot name: " + name);
+        }
+        return SLOT_START + name + SLOT_END;
+    }
+
+    /**
+     * Get a slot to use as a sub-element in a tree that is compiled into a template.
+     *
+     * @param name The slot name.
+     * @return The slot element.
+     */
+    public static HtmlElement slotElement(@NotNull String name) {
+        return new SlotElement(slot(name));
+    }
+
+    /**
+     * Get the names of the slots of this template.
+     *
+     * @return The slot names in the order they first appear.
+     */
+    public List<String> getSlots() {
+        return slots;
+    }
+
+    /**
+     * Get the number of bytes the template renders without any values.
+     *
+     * @return The length in bytes.
+     */
+    public int getStaticLength() {
+        return staticLength;
+    }
+
+    /**
+     * Create an empty set of values for rendering this template once.
+     *
+     * @return The values.
+     */
+    public Values values() {
+        return new Values(this);
+    }
+
+    /**
+     * Render the template as UTF-8. The stream is neither flushed nor closed.
+     *
+     * @param out    Where to write the HTML.
+     * @param values The values of the slots.
+     * @throws IOException If writing fails.
+     */
+    public void renderTo(@NotNull OutputStream out, @NotNull Values values) throws IOException {
+        if (values.template != this) throw new IllegalArgumentException("Values belong to another template");
+        Utf8Appender appender = Utf8Appender.open(out);
+        try {
+            for (int i = 0; i < slotPositions.length; i++) {
+                appender.write(segments[i]);
+                Object value = values.values[slotPositions[i]];
+                if (value instanceof byte[]) appender.write((byte[]) value);
+                else if (value instanceof HtmlElement) ((HtmlElement) value).renderTo(appender);
+                else if (value != null) appender.append((String) value);
+            }
+            appender.write(segments[segments.length - 1]);
+            appender.finish();
+        } finally {
+            appender.release();
+        }
+    }
+
+    /**
+     * Render the template as UTF-8 bytes, for example for {@code FormattedResponse.content(byte[])}.
+     *
+     * @param values The values of the slots.
+     * @return The HTML.
+     */
+    public byte[] toBytes(@NotNull Values values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(staticLength + 256);
+        try {
+            renderTo(out, values);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw.
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Values of the slots of a template for rendering it once.
+     */
+    public static final class Values {
+        private final HtmlTemplate template;
+        private final Object[] values;
+
+        private Values(HtmlTemplate template) {
+            this.template = template;
+            this.values = new Object[template.slots.size()];
+        }
+
+        /**
+         * Set a slot to text.
+         *
+         * @param slot The slot name.
+         * @param text The text, or null to leave the slot empty.
+         * @return The Values instance.
+         */
+        public Values set(@NotNull String slot, @Nullable String text) {
+            values[index(slot)] = text;
+            return this;
+        }
+
+        /**
+         * Set a slot to an element.
+         *
+         * @param slot    The slot name.
+         * @param element The element, or null to leave the slot empty.
+         * @return The Values instance.
+         */
+        public Values set(@NotNull String slot, @Nullable HtmlElement element) {
+            values[index(slot)] = element;
+            return this;
+        }
+
+        /**
+         * Set a slot to HTML that is already encoded as UTF-8, for example a fragment rendered once and reused.
+         *
+         * @param slot The slot name.
+         * @param html The encoded HTML, or null to leave the slot empty.
+         * @return The Values instance.
+         */
+        public Values set(@NotNull String slot, byte @Nullable [] html) {
+            values[index(slot)] = html;
+            return this;
+        }
+
+        private int index(String slot) {
+            Integer index = template.slotIndexes.get(slot);
+            if (index == null) throw new IllegalArgumentException("Unknown slot: " + slot);
+            return index;
+        }
+    }
+
+    /**
+     * Sub-element that renders as a slot marker.
+     */
+    private static final class SlotElement extends HtmlElement {
+        private final String marker;
+
+        SlotElement(String marker) {
+            super("slot");
+            this.marker = marker;
+        }
+
+        @Override
+        void render(Appendable out, @Nullable HtmlElement parent) throws IOException {
+            out.append(marker);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.voxxin.web.element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Appendable that encodes characters as UTF-8 straight into a byte buffer and writes the buffer to a stream whenever
+ * it fills up, so rendering does not create intermediate strings or byte arrays. Every thread reuses one buffer.
+ * Unpaired surrogates are written as {@code ?}, like {@link String#getBytes} does.
+ */
+final class Utf8Appender implements Appendable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final boolean pooled;
+    private int count;
+    private char highSurrogate;
+
+    private Utf8Appender(OutputStream out, byte[] buffer, boolean pooled) {
+        this.out = out;
+        this.buffer = buffer;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Create an appender that borrows the buffer of the current thread. It must be {@link #release() released}
+     * to give the buffer back.
+     *
+     * @param out The stream to write to.
+     * @return The appender.
+     */
+    static Utf8Appender open(OutputStream out) {
+        byte[] buffer = BUFFERS.get();
+        // A stream that renders HTML itself while being written to would find the buffer taken.
+        if (buffer == null) return new Utf8Appender(out, new byte[BUFFER_SIZE], false);
+        BUFFERS.set(null);
+        return new Utf8Appender(out, buffer, true);
+    }
+
+    /**
+     * Write the buffered bytes. The stream is neither flushed nor closed.
+     *
+     * @throws IOException If writing fails.
+     */
+    void finish() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put((byte) '?');
+        }
+        if (count > 0) drain();
+    }
+
+    /**
+     * Give the buffer back to the current thread, dropping anything that was not written yet.
+     */
+    void release() {
+        count = 0;
+        if (pooled) BUFFERS.set(buffer);
+    }
+
+    /**
+     * Write bytes that are already encoded. Small arrays are buffered together with the text around them, larger
+     * ones are written to the stream without copying.
+     *
+     * @param bytes The bytes.
+     * @throws IOException If writing fails.
+     */
+    void write(byte[] bytes) throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put((byte) '?');
+        }
+        if (bytes.length <= buffer.length - count) {
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+            return;
+        }
+        if (count > 0) drain();
+        if (bytes.length < buffer.length) {
+            System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+            count = bytes.length;
+        } else {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (csq == null) csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) csq = "null";
+        for (int i = start; i < end; i++) {
+            char c = csq.charAt(i);
+            if (c < 0x80 && highSurrogate == 0) {
+                if (count == buffer.length) drain();
+                buffer[count++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        encode(c);
+        return this;
+    }
+
+    private void encode(char c) throws IOException {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                put((byte) (0xF0 | codePoint >> 18));
+                put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                put((byte) (0x80 | codePoint & 0x3F));
+                return;
+            }
+            put((byte) '?');
+        }
+
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            put((byte) (0xC0 | c >> 6));
+            put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            put((byte) (0xE0 | c >> 12));
+            put((byte) (0x80 | c >> 6 & 0x3F));
+            put((byte) (0x80 | c & 0x3F));
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (count == buffer.length) drain();
+        buffer[count++] = b;
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+}
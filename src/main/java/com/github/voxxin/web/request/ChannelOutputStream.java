@@ -0,0 +1,132 @@
+package com.github.voxxin.web.request;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An output stream backed by a channel. Writers that know about it, such as
+ * {@link FormattedResponse#writeTo(OutputStream)}, can bypass the stream and use gathering writes or
+ * {@link java.nio.channels.FileChannel#transferTo} on the channel directly.
+ */
+public abstract class ChannelOutputStream extends OutputStream {
+    private static final int TRANSFER_CHUNK = 64 * 1024;
+
+    /**
+     * Flush any bytes buffered by the stream and get the channel underneath it. The channel must not be closed.
+     * Writes made on the channel are timed from the moment it is handed out, so long transfers should get the
+     * channel again for every chunk.
+     *
+     * @return The channel.
+     * @throws IOException If an I/O error occurs while flushing.
+     */
+    public abstract GatheringByteChannel channel() throws IOException;
+
+    /**
+     * Send bytes that stay unchanged until the response is written, such as a memory mapped file, after what was
+     * written so far. Streams that write the response later keep the buffer instead of copying it. Unless
+     * overridden, the bytes are written to the {@link #channel()} in chunks.
+     *
+     * @param content The bytes from its position to its limit. Its position is left as it is.
+     * @return The number of bytes sent.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long send(ByteBuffer content) throws IOException {
+        ByteBuffer remaining = content.duplicate();
+        int end = remaining.limit();
+        while (remaining.position() < end) {
+            remaining.limit(Math.min(end, remaining.position() + TRANSFER_CHUNK));
+            channel().write(remaining);
+        }
+        return content.remaining();
+    }
+
+    /**
+     * Send part of a file after what was written so far. Streams that write the response later keep the file open
+     * and send it straight to the socket then. Unless overridden, the file is sent to the {@link #channel()} with
+     * {@link FileChannel#transferTo} in chunks.
+     *
+     * @param file     The file.
+     * @param position The position of the first byte to send.
+     * @param count    The number of bytes to send.
+     * @return The number of bytes sent.
+     * @throws IOException If an I/O error occurs, or the file is shorter than expected.
+     */
+    public long sendFile(Path file, long position, long count) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long sent = 0;
+            while (sent < count) {
+                long transferred = source.transferTo(position + sent, Math.min(count - sent, TRANSFER_CHUNK), channel());
+                if (transferred <= 0 && position + sent >= source.size()) throw new EOFException("File shrank while sending: " + file);
+                sent += transferred;
+            }
+            return sent;
+        }
+    }
+
+    /**
+     * Account for bytes written to the channel directly instead of through the stream, so they are counted like
+     * bytes written to the stream. Does nothing unless overridden.
+     *
+     * @param status The status code if the bytes start a response, otherwise 0.
+     * @param bytes  The number of bytes written.
+     */
+    public void written(int status, long bytes) {
+    }
+
+    /**
+     * Check whether anything has been written for the current response, through the stream or the channel.
+     * Returns false unless overridden.
+     *
+     * @return Whether the response has started.
+     */
+    public boolean hasOutput() {
+        return false;
+    }
+
+    /**
+     * Get the {@code Connection} header the response has to carry, because the connection closes after it or an
+     * HTTP/1.0 connection stays open. Writers that write the head to the {@link #channel()} themselves include it,
+     * and report that with {@link #written(int, long)}. Heads written to the stream get it added. Returns null unless
+     * overridden.
+     *
+     * @return The header value, or null to leave the header out.
+     */
+    public String connection() {
+        return null;
+    }
+
+    /**
+     * Check whether the response answers a HEAD request, so only its head may be sent. Bytes written to the stream
+     * after the head are dropped, but writers have to leave the body out of what they write to the channel
+     * themselves. Returns false unless overridden.
+     *
+     * @return Whether the body is left out.
+     */
+    public boolean omitsBody() {
+        return false;
+    }
+
+    /**
+     * Check whether the client can read a body sent with chunked transfer encoding, which HTTP/1.0 clients cannot.
+     * A body of unknown length is otherwise sent as it is and ended by closing the connection, see
+     * {@link #closeAfterResponse()}. Returns true unless overridden.
+     *
+     * @return Whether chunked transfer encoding may be used.
+     */
+    public boolean acceptsChunked() {
+        return true;
+    }
+
+    /**
+     * Ask for the connection to be closed once the response is written, because only that tells the client where
+     * the body ends. Does nothing unless overridden.
+     */
+    public void closeAfterResponse() {
+    }
+}
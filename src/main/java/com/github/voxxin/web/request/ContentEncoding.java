@@ -0,0 +1,228 @@
+package com.github.voxxin.web.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Content codings the server can compress responses with, and negotiation of the coding from a request's
+ * {@code Accept-Encoding} header.
+ * <p>
+ * Compression on the request path borrows its {@link Deflater} from a small pool, so the native zlib state is
+ * allocated once per pooled instance instead of once per response.
+ */
+public final class ContentEncoding {
+    public static final int IDENTITY = 0;
+    public static final int GZIP = 1;
+    public static final int DEFLATE = 2;
+
+    /**
+     * Bodies smaller than this are not worth compressing on the fly.
+     */
+    public static final int MIN_COMPRESS_SIZE = 1024;
+
+    private static final String[] NAMES = {"identity", "gzip", "deflate"};
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ArrayBlockingQueue<Deflater> GZIP_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Deflater> DEFLATE_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ContentEncoding() {}
+
+    /**
+     * Get the name of a content coding, as used in the {@code Content-Encoding} header.
+     *
+     * @param coding The content coding.
+     * @return The coding name.
+     */
+    public static String name(int coding) {
+        return NAMES[coding];
+    }
+
+    /**
+     * Check whether content of a type is worth compressing. Images, media and fonts are compressed already.
+     *
+     * @param contentType The content type, parameters are ignored.
+     * @return Whether the content compresses well.
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) return false;
+        int end = contentType.indexOf(';');
+        String type = (end == -1 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.endsWith("+json")
+                || type.endsWith("+xml")
+                || type.equals("application/json")
+                || type.equals("application/javascript")
+                || type.equals("application/xml")
+                || type.equals("application/wasm");
+    }
+
+    /**
+     * Select the content coding to answer a request with.
+     *
+     * @param acceptEncoding The request's {@code Accept-Encoding} header, or null if it sent none.
+     * @param gzip           Whether a gzip variant is available.
+     * @param deflate        Whether a deflate variant is available.
+     * @return The coding with the highest quality the client accepts, preferring gzip on ties, or
+     * {@link #IDENTITY} if it accepts neither.
+     */
+    public static int select(String acceptEncoding, boolean gzip, boolean deflate) {
+        if (acceptEncoding == null || !gzip && !deflate) return IDENTITY;
+
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end == -1) end = acceptEncoding.length();
+            String part = acceptEncoding.substring(start, end);
+            start = end + 1;
+
+            int parameters = part.indexOf(';');
+            String name = (parameters == -1 ? part : part.substring(0, parameters)).trim();
+            float quality = parameters == -1 ? 1 : quality(part.substring(parameters + 1));
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) gzipQuality = quality;
+            else if (name.equalsIgnoreCase("deflate")) deflateQuality = quality;
+            else if (name.equals("*")) anyQuality = quality;
+        }
+
+        if (gzipQuality < 0) gzipQuality = anyQuality;
+        if (deflateQuality < 0) deflateQuality = anyQuality;
+        if (!gzip) gzipQuality = 0;
+        if (!deflate) deflateQuality = 0;
+
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) return GZIP;
+        if (deflateQuality > 0) return DEFLATE;
+        return IDENTITY;
+    }
+
+    /**
+     * Compress content in memory with a pooled compressor.
+     *
+     * @param content The content.
+     * @param coding  The content coding.
+     * @return The compressed content.
+     */
+    public static byte[] encode(byte[] content, int coding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        try (OutputStream compressor = compressor(out, coding)) {
+            compressor.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compress content once with the best compression, for variants that are kept and served many times.
+     *
+     * @param content The content.
+     * @param coding  The content coding.
+     * @return The compressed content.
+     */
+    public static byte[] precompress(byte[] content, int coding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, coding == GZIP);
+        try (OutputStream compressor = new CompressingOutputStream(out, deflater, coding == GZIP, null)) {
+            compressor.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap a stream so everything written to it is compressed with a pooled compressor. Closing the returned
+     * stream finishes the compressed data and returns the compressor to the pool, but does not close the
+     * wrapped stream.
+     *
+     * @param out    The stream receiving the compressed data.
+     * @param coding The content coding, {@link #GZIP} or {@link #DEFLATE}.
+     * @return The compressing stream.
+     * @throws IOException If the gzip header could not be written.
+     */
+    public static OutputStream compressor(OutputStream out, int coding) throws IOException {
+        ArrayBlockingQueue<Deflater> pool = coding == GZIP ? GZIP_POOL : DEFLATE_POOL;
+        Deflater deflater = pool.poll();
+        if (deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, coding == GZIP);
+        return new CompressingOutputStream(out, deflater, coding == GZIP, pool);
+    }
+
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() < 2 || Character.toLowerCase(trimmed.charAt(0)) != 'q' || trimmed.charAt(1) != '=') continue;
+            try {
+                return Float.parseFloat(trimmed.substring(2));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Deflater stream that writes the gzip header and trailer itself, so gzip can use a pooled raw
+     * {@link Deflater} just like deflate.
+     */
+    private static final class CompressingOutputStream extends DeflaterOutputStream {
+        private final boolean gzip;
+        private final ArrayBlockingQueue<Deflater> pool;
+        private final CRC32 crc = new CRC32();
+        private boolean closed = false;
+
+        CompressingOutputStream(OutputStream out, Deflater deflater, boolean gzip, ArrayBlockingQueue<Deflater> pool) throws IOException {
+            super(out, deflater, 8192);
+            this.gzip = gzip;
+            this.pool = pool;
+            if (gzip) out.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (gzip) crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) return;
+            super.finish();
+            if (gzip) {
+                int checksum = (int) crc.getValue();
+                long size = def.getBytesRead();
+                out.write(new byte[]{
+                        (byte) checksum, (byte) (checksum >> 8), (byte) (checksum >> 16), (byte) (checksum >> 24),
+                        (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+                });
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            boolean finished = false;
+            try {
+                finish();
+                finished = true;
+            } finally {
+                // A compressor that failed half way through is not trusted with another response.
+                if (pool != null) {
+                    if (finished) def.reset();
+                    if (!finished || !pool.offer(def)) def.end();
+                }
+            }
+        }
+    }
+}
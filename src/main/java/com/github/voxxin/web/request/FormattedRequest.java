@@ -1,9 +1,27 @@
 package com.github.voxxin.web.request;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FormattedRequest {
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "CONNECT", "TRACE"};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+
+    /*
+     * Layout of the offsets array for parsed requests, relative to the start of the request:
+     * method end, target start, target end, version start, version end,
+     * followed by name start, name end, value start and value end for every header.
+     */
+    static final int REQUEST_LINE_OFFSETS = 5;
+    static final int HEADER_OFFSETS = 4;
 
     private HashMap<String, String> headers;
     private String body;
@@ -13,12 +31,24 @@ public class FormattedRequest {
     private HashMap<String, String> query;
     private String httpVersion;
 
+    // Raw bytes of a request read by HttpRequestParser, the fields above are created from them on first use.
+    private byte[] data;
+    private int base;
+    private int[] offsets;
+    private int headerCount;
+    private InputStream bodyStream;
+    private String[] headerValues;
+    private boolean targetParsed;
+    private String rawQuery;
+
     /**
      * Constructor for FormattedRequest.
      *
      * @param inputHeaders The list of input headers.
      */
     public FormattedRequest(List<String> inputHeaders) {
+        this.targetParsed = true;
+
         boolean hasBody;
         if (inputHeaders.get(0).contains("HTTP/")) hasBody = false;
         else if (inputHeaders.get(1).contains("HTTP/")) hasBody = true;
@@ -32,28 +62,8 @@ public class FormattedRequest {
         this.httpVersion = mainMethods[2];
 
         this.headers = new HashMap<>();
-        this.query = new HashMap<>();
-
-        int queryIndex = fullPath.indexOf('?');
-        if (queryIndex != -1) {
-            String[] pathAndQuery = fullPath.split("\\?", 2);
-            this.path = pathAndQuery[0];
-            String[] queryParams = pathAndQuery[1].split("&");
-            for (String param : queryParams) {
-                String[] keyValue = param.split("=", 2);
-                query.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
-            }
-        } else {
-            this.path = fullPath;
-        }
-
-        int pathParamIndex = path.indexOf(':');
-        if (pathParamIndex != -1) {
-            this.pathParameters = path.substring(pathParamIndex + 1);
-            this.path = path.substring(0, pathParamIndex);
-        } else {
-            this.pathParameters = null;
-        }
+        parseTarget(fullPath);
+        this.query = parseQuery(rawQuery);
 
         for (String header : inputHeaders) {
             String[] parts = header.split(": ", 2);
@@ -64,20 +74,70 @@ public class FormattedRequest {
     }
 
     /**
-     * Get the request body.
+     * Constructor for a request read by {@link HttpRequestParser}. Only offsets are recorded, strings are
+     * created when a getter first asks for them.
      *
-     * @return The request body.
+     * @param data        The buffer holding the request.
+     * @param base        The index of the first byte of the request.
+     * @param offsets     The request line and header offsets, relative to base.
+     * @param headerCount The number of headers.
+     * @param bodyStream  The decoded body, or null if the request has none.
+     */
+    FormattedRequest(byte[] data, int base, int[] offsets, int headerCount, InputStream bodyStream) {
+        this.data = data;
+        this.base = base;
+        this.offsets = offsets;
+        this.headerCount = headerCount;
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * Get the request body, reading whatever is left of the body stream into a string.
+     *
+     * @return The request body, or null if the request has none.
+     * @throws UncheckedIOException If the body could not be read.
      */
     public String getBody() {
+        if (body == null && bodyStream != null) {
+            try {
+                body = new String(bodyStream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return body;
     }
 
+    /**
+     * Get the request body as a stream. Bodies are decoded as they are read, so large uploads do not have to
+     * fit in memory. The stream ends at the end of the body and can only be read once.
+     *
+     * @return The request body stream, empty if the request has none.
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream == null) {
+            if (body == null) return InputStream.nullInputStream();
+            bodyStream = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bodyStream;
+    }
+
+    /**
+     * Get the request body as a channel. See {@link #getBodyStream()}.
+     *
+     * @return The request body channel.
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(getBodyStream());
+    }
+
     /**
      * Get the request method.
      *
      * @return The request method.
      */
     public String getMethod() {
+        if (method == null && data != null) method = known(METHODS, 0, offsets[0]);
         return method;
     }
 
@@ -87,6 +147,7 @@ public class FormattedRequest {
      * @return The request path.
      */
     public String getPath() {
+        ensureTarget();
         return path;
     }
 
@@ -96,6 +157,7 @@ public class FormattedRequest {
      * @return The path parameters.
      */
     public String getPathParameters() {
+        ensureTarget();
         return pathParameters;
     }
 
@@ -105,6 +167,10 @@ public class FormattedRequest {
      * @return The request query parameters.
      */
     public HashMap<String, String> getQuery() {
+        if (query == null && data != null) {
+            ensureTarget();
+            query = parseQuery(rawQuery);
+        }
         return query;
     }
 
@@ -114,15 +180,134 @@ public class FormattedRequest {
      * @return The HTTP version.
      */
     public String getHttpVersion() {
+        if (httpVersion == null && data != null) httpVersion = known(VERSIONS, offsets[3], offsets[4]);
         return httpVersion;
     }
 
+    /**
+     * Get a request header, ignoring the case of its name.
+     *
+     * @param name The header name.
+     * @return The header value, or null if the header is not present.
+     */
+    public String getHeader(String name) {
+        if (data != null) {
+            for (int i = 0; i < headerCount; i++) {
+                if (nameEquals(i, name)) return headerValue(i);
+            }
+            return null;
+        }
+
+        if (headers == null) return null;
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) return entry.getValue();
+        }
+        return null;
+    }
+
     /**
      * Get the request headers.
      *
      * @return A HashMap representing the request headers, where keys are header names and values are header values.
      */
     public HashMap<String, String> getHeaders() {
+        if (headers == null && data != null) {
+            headers = new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                int o = REQUEST_LINE_OFFSETS + i * HEADER_OFFSETS;
+                headers.put(string(offsets[o], offsets[o + 1]), headerValue(i));
+            }
+        }
         return headers;
     }
+
+    private void ensureTarget() {
+        if (targetParsed) return;
+        targetParsed = true;
+        parseTarget(string(offsets[1], offsets[2]));
+    }
+
+    private void parseTarget(String fullPath) {
+        int queryIndex = fullPath.indexOf('?');
+        if (queryIndex != -1) {
+            this.path = fullPath.substring(0, queryIndex);
+            this.rawQuery = fullPath.substring(queryIndex + 1);
+        } else {
+            this.path = fullPath;
+        }
+
+        int pathParamIndex = path.indexOf(':');
+        if (pathParamIndex != -1) {
+            this.pathParameters = path.substring(pathParamIndex + 1);
+            this.path = path.substring(0, pathParamIndex);
+        }
+    }
+
+    private static HashMap<String, String> parseQuery(String rawQuery) {
+        HashMap<String, String> query = new HashMap<>();
+        if (rawQuery == null) return query;
+
+        int start = 0;
+        while (start <= rawQuery.length()) {
+            int end = rawQuery.indexOf('&', start);
+            if (end == -1) end = rawQuery.length();
+            // Empty pairs, as in "a=1&&b=2" or a trailing '&', name nothing.
+            if (end == start) {
+                start = end + 1;
+                continue;
+            }
+            int equals = rawQuery.indexOf('=', start);
+            if (equals != -1 && equals < end) {
+                query.put(rawQuery.substring(start, equals), rawQuery.substring(equals + 1, end));
+            } else {
+                query.put(rawQuery.substring(start, end), "");
+            }
+            start = end + 1;
+        }
+        return query;
+    }
+
+    private String headerValue(int index) {
+        if (headerValues == null) headerValues = new String[headerCount];
+        if (headerValues[index] == null) {
+            int o = REQUEST_LINE_OFFSETS + index * HEADER_OFFSETS;
+            headerValues[index] = string(offsets[o + 2], offsets[o + 3]);
+        }
+        return headerValues[index];
+    }
+
+    private boolean nameEquals(int index, String name) {
+        int o = REQUEST_LINE_OFFSETS + index * HEADER_OFFSETS;
+        int start = base + offsets[o];
+        int length = offsets[o + 1] - offsets[o];
+        if (length != name.length()) return false;
+
+        for (int i = 0; i < length; i++) {
+            int a = data[start + i];
+            int b = name.charAt(i);
+            if (a != b && toLowerCase(a) != toLowerCase(b)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return a shared constant if the bytes spell one of the candidates, so common values are never allocated.
+     */
+    private String known(String[] candidates, int start, int end) {
+        for (String candidate : candidates) {
+            if (candidate.length() != end - start) continue;
+            int i = 0;
+            while (i < candidate.length() && data[base + start + i] == candidate.charAt(i)) i++;
+            if (i == candidate.length()) return candidate;
+        }
+        return string(start, end);
+    }
+
+    private String string(int start, int end) {
+        return new String(data, base + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
 }
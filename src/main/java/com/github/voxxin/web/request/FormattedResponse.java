@@ -1,7 +1,19 @@
 package com.github.voxxin.web.request;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.charset.StandardCharsets;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,13 +21,26 @@ public class FormattedResponse {
 
     private static final String DEFAULT_HTTP_VERSION = "HTTP/1.1";
     private static final int DEFAULT_STATUS_CODE = 404;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+    // Content length of a body sent as it is and ended by closing the connection.
+    private static final long UNTIL_CLOSE = -2;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final byte[] EMPTY = new byte[0];
 
     private String httpVersion = DEFAULT_HTTP_VERSION;
     private int statusCode = DEFAULT_STATUS_CODE;
     private String statusMessage;
     private String contentType;
     private byte[] contentBytes;
+    private InputStream contentStream;
+    private long contentStreamLength = -1;
+    private Path contentPath;
+    private ContentWriter contentWriter;
     private Map<String, String> customHeaders = new HashMap<>();
+    private boolean compress = false;
+    private String acceptEncoding;
 
     /**
      * Set the HTTP version for the response.
@@ -68,8 +93,7 @@ public class FormattedResponse {
      * @return The FormattedResponse instance.
      */
     public FormattedResponse content(String content) {
-        this.contentBytes = content.getBytes(StandardCharsets.UTF_8);
-        return this;
+        return content(content.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -79,10 +103,61 @@ public class FormattedResponse {
      * @return The FormattedResponse instance.
      */
     public FormattedResponse content(byte[] contentBytes) {
+        clearContent();
         this.contentBytes = contentBytes;
         return this;
     }
 
+    /**
+     * Set the content for the response to a stream of unknown length, sent with chunked transfer encoding.
+     * The stream is read and closed when the response is written.
+     *
+     * @param contentStream The content stream.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse content(InputStream contentStream) {
+        return content(contentStream, -1);
+    }
+
+    /**
+     * Set the content for the response to a stream. The stream is read and closed when the response is written.
+     *
+     * @param contentStream The content stream.
+     * @param length        The number of bytes the stream holds, or -1 to send it with chunked transfer encoding.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse content(InputStream contentStream, long length) {
+        clearContent();
+        this.contentStream = contentStream;
+        this.contentStreamLength = length;
+        return this;
+    }
+
+    /**
+     * Set the content for the response to a file, which is streamed when the response is written.
+     *
+     * @param contentPath The file.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse content(Path contentPath) {
+        clearContent();
+        this.contentPath = contentPath;
+        return this;
+    }
+
+    /**
+     * Set the content for the response to a generator that writes it when the response is written. The
+     * content is sent with chunked transfer encoding.
+     *
+     * @param contentWriter The content writer.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse content(ContentWriter contentWriter) {
+        clearContent();
+        this.contentWriter = contentWriter;
+        return this;
+    }
+
     /**
      * Add a custom header to the response.
      *
@@ -95,33 +170,485 @@ public class FormattedResponse {
         return this;
     }
 
+    /**
+     * Compress the content if the client accepts gzip or deflate and the content is text-like. Content in memory
+     * is only compressed from {@link ContentEncoding#MIN_COMPRESS_SIZE} bytes on, streamed content is compressed
+     * while it is written and sent with chunked transfer encoding.
+     *
+     * @param acceptEncoding The request's {@code Accept-Encoding} header, or null if it sent none.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse compress(String acceptEncoding) {
+        this.compress = true;
+        this.acceptEncoding = acceptEncoding;
+        return this;
+    }
+
+    /**
+     * Compress the content if the client of a request accepts it. See {@link #compress(String)}.
+     *
+     * @param request The request being answered.
+     * @return The FormattedResponse instance.
+     */
+    public FormattedResponse compress(FormattedRequest request) {
+        return compress(request.getHeader("Accept-Encoding"));
+    }
+
     /**
      * Build the formatted response.
      *
      * @return The formatted response as bytes.
      */
     public byte[] build() {
-        StringBuilder responseBuilder = new StringBuilder();
-        responseBuilder.append(httpVersion).append(" ").append(statusCode).append(" ").append(statusMessage).append("\r\n")
-                .append("Content-Type: ").append(contentType).append("\r\n");
+        int coding = coding();
+        byte[] content = bytes(coding);
+        if (content != null) {
+            Head head = head(content.length, coding);
+            byte[] responseBytes = Arrays.copyOf(head.bytes, head.length + content.length);
+            System.arraycopy(content, 0, responseBytes, head.length, content.length);
+            return responseBytes;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Build only the status line and headers, for callers that write the body themselves.
+     *
+     * @param contentLength The length of the body that will follow, or -1 for chunked transfer encoding.
+     * @return The response head as bytes.
+     */
+    public byte[] buildHead(long contentLength) {
+        Head head = head(contentLength, ContentEncoding.IDENTITY);
+        return Arrays.copyOf(head.bytes, head.length);
+    }
+
+    /**
+     * Write the response to a stream without building it in memory first. If the stream is a
+     * {@link ChannelOutputStream} the response is written to its channel with gathering writes, and only the head
+     * is written if the stream {@link ChannelOutputStream#omitsBody() omits the body}. A body of unknown length is
+     * chunked, or ended by closing the connection if the stream does not
+     * {@link ChannelOutputStream#acceptsChunked() accept chunks}. A content stream is cut off at its declared length.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (out instanceof ChannelOutputStream) {
+            ChannelOutputStream stream = (ChannelOutputStream) out;
+            stream.written(statusCode, writeTo(stream.channel(), stream));
+            return;
+        }
+
+        int coding = coding();
+        if (coding != ContentEncoding.IDENTITY && contentBytes == null) {
+            Head head = head(-1, coding);
+            out.write(head.bytes, 0, head.length);
+            writeCompressed(new ChunkedOutputStream(out, null, null, true), coding);
+            return;
+        }
+
+        byte[] bytes = bytes(coding);
+        long length = bytes != null ? bytes.length : contentLength();
+        Head head = head(length, coding);
+        out.write(head.bytes, 0, head.length);
+
+        if (bytes != null) {
+            out.write(bytes);
+        } else if (contentPath != null) {
+            Files.copy(contentPath, out);
+        } else if (contentStream != null && length >= 0) {
+            try (InputStream in = contentStream) {
+                copy(in, out, length);
+            }
+        } else {
+            ChunkedOutputStream chunked = new ChunkedOutputStream(out, null, null, true);
+            writeContent(chunked);
+            chunked.finish();
+        }
+    }
+
+    /**
+     * Write the response to a blocking channel. The head and the body go out in a single gathering write
+     * where the body is in memory, and files are sent with {@link FileChannel#transferTo}.
+     *
+     * @param channel The channel to write to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        writeTo(channel, null);
+    }
+
+    /**
+     * Write the response to a channel, getting the channel from the stream again for every chunk of a file.
+     *
+     * @return The number of bytes written.
+     */
+    private long writeTo(GatheringByteChannel channel, ChannelOutputStream stream) throws IOException {
+        boolean chunked = stream == null || stream.acceptsChunked();
+        if (stream != null && stream.omitsBody()) return writeHead(channel, stream, chunked);
+
+        int coding = coding();
+        if (coding != ContentEncoding.IDENTITY && contentBytes == null) {
+            Head head = head(chunked ? -1 : UNTIL_CLOSE, coding, stream != null ? stream.connection() : null);
+            ChunkedOutputStream body = new ChunkedOutputStream(null, channel, ByteBuffer.wrap(head.bytes, 0, head.length), chunked);
+            if (!chunked) stream.closeAfterResponse();
+            writeCompressed(body, coding);
+            return body.written;
+        }
+
+        byte[] bytes = bytes(coding);
+        long length = bytes != null ? bytes.length : contentLength();
+        if (length < 0 && !chunked) {
+            length = UNTIL_CLOSE;
+            stream.closeAfterResponse();
+        }
+        Head head = head(length, coding, stream != null ? stream.connection() : null);
+        ByteBuffer headBuffer = ByteBuffer.wrap(head.bytes, 0, head.length);
+
+        long written = 0;
+        if (bytes != null) {
+            written = writeFully(channel, headBuffer, ByteBuffer.wrap(bytes));
+        } else if (contentPath != null && stream != null) {
+            written = writeFully(channel, headBuffer) + stream.sendFile(contentPath, 0, length);
+        } else if (contentPath != null) {
+            written = writeFully(channel, headBuffer);
+            try (FileChannel file = FileChannel.open(contentPath, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < length) {
+                    long transferred = file.transferTo(position, Math.min(length - position, TRANSFER_CHUNK), channel);
+                    if (transferred <= 0 && position >= file.size()) throw new EOFException("File shrank while sending: " + contentPath);
+                    position += transferred;
+                }
+                written += position;
+            }
+        } else if (contentStream != null && length >= 0) {
+            try (InputStream in = contentStream) {
+                byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+                ByteBuffer pending = headBuffer;
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (read == -1) throw shortContent(length, remaining);
+                    written += writeFully(channel, pending, ByteBuffer.wrap(chunk, 0, read));
+                    pending = null;
+                    remaining -= read;
+                }
+                if (pending != null) written += writeFully(channel, pending);
+            }
+        } else {
+            ChunkedOutputStream body = new ChunkedOutputStream(null, channel, headBuffer, chunked);
+            writeContent(body);
+            body.finish();
+            written = body.written;
+        }
+        return written;
+    }
+
+    /**
+     * Write only the head a full response would have, for a HEAD request. A content stream is closed unread.
+     *
+     * @return The number of bytes written.
+     */
+    private long writeHead(GatheringByteChannel channel, ChannelOutputStream stream, boolean chunked) throws IOException {
+        int coding = coding();
+        long length = -1;
+        if (coding == ContentEncoding.IDENTITY || contentBytes != null) {
+            byte[] bytes = bytes(coding);
+            length = bytes != null ? bytes.length : contentLength();
+        }
+        if (contentStream != null) contentStream.close();
+        if (length < 0 && !chunked) {
+            length = UNTIL_CLOSE;
+            stream.closeAfterResponse();
+        }
+
+        Head head = head(length, coding, stream.connection());
+        return writeFully(channel, ByteBuffer.wrap(head.bytes, 0, head.length));
+    }
+
+    private void writeCompressed(ChunkedOutputStream chunked, int coding) throws IOException {
+        try (OutputStream compressor = ContentEncoding.compressor(chunked, coding)) {
+            writeContent(compressor);
+        }
+        chunked.finish();
+    }
+
+    /**
+     * Write streamed content, a file, an input stream or a generator, to a stream.
+     */
+    private void writeContent(OutputStream out) throws IOException {
+        if (contentWriter != null) {
+            contentWriter.writeTo(out);
+        } else if (contentPath != null) {
+            Files.copy(contentPath, out);
+        } else {
+            try (InputStream in = contentStream) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    /**
+     * Copy exactly the declared length of a content stream, so a stream that holds more or less than it said cannot
+     * break the framing of the next response on the connection. Extra bytes are left unread.
+     *
+     * @throws EOFException If the stream ends early. The response is incomplete and the connection has to close.
+     */
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+            if (read == -1) throw shortContent(length, remaining);
+            out.write(chunk, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static EOFException shortContent(long length, long remaining) {
+        return new EOFException("Content stream ended after " + (length - remaining) + " of " + length + " bytes");
+    }
+
+    /**
+     * Get the content to send if it is held in memory, compressed with the given coding.
+     *
+     * @return The content, or null if it is streamed.
+     */
+    private byte[] bytes(int coding) {
+        if (hasBody() && (contentStream != null || contentPath != null || contentWriter != null)) return null;
+
+        byte[] bytes = contentBytes != null && hasBody() ? contentBytes : EMPTY;
+        return coding == ContentEncoding.IDENTITY ? bytes : ContentEncoding.encode(bytes, coding);
+    }
+
+    /**
+     * Check whether the content may be compressed, in which case the response varies by {@code Accept-Encoding}.
+     */
+    private boolean isCompressible() {
+        if (!compress || !hasBody() || !ContentEncoding.isCompressible(contentType)) return false;
+        if (contentBytes != null) return contentBytes.length >= ContentEncoding.MIN_COMPRESS_SIZE;
+        if (contentStream != null && contentStreamLength >= 0) return contentStreamLength >= ContentEncoding.MIN_COMPRESS_SIZE;
+        return contentStream != null || contentPath != null || contentWriter != null;
+    }
+
+    private int coding() {
+        if (!isCompressible()) return ContentEncoding.IDENTITY;
+        return ContentEncoding.select(acceptEncoding, true, true);
+    }
+
+    private void clearContent() {
+        this.contentBytes = null;
+        this.contentStream = null;
+        this.contentStreamLength = -1;
+        this.contentPath = null;
+        this.contentWriter = null;
+    }
+
+    /**
+     * Get the length of the content, or -1 if it is only known once it has been written.
+     */
+    private long contentLength() throws IOException {
+        if (contentPath != null) return Files.size(contentPath);
+        if (contentStream != null) return contentStreamLength;
+        if (contentWriter != null) return -1;
+        return contentBytes != null ? contentBytes.length : 0;
+    }
+
+    private Head head(long contentLength, int coding) {
+        return head(contentLength, coding, null);
+    }
+
+    /**
+     * Encode the status line and headers straight to bytes.
+     *
+     * @param contentLength The content length, -1 for chunked transfer encoding, or {@link #UNTIL_CLOSE} for a body
+     *                      ended by closing the connection.
+     * @param coding        The content coding of the body.
+     * @param connection    The {@code Connection} header value, or null to leave it out.
+     */
+    private Head head(long contentLength, int coding, String connection) {
+        Head head = new Head();
+        head.append(httpVersion).append(" ").append(statusCode).append(" ").append(statusMessage).append("\r\n");
+        if (contentType != null) head.append("Content-Type: ").append(contentType).append("\r\n");
 
         // Append custom headers
         for (Map.Entry<String, String> entry : customHeaders.entrySet()) {
-            responseBuilder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+            head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
         }
 
-        if (contentBytes != null) {
-            responseBuilder.append("Content-Length: ").append(contentBytes.length).append("\r\n\r\n");
-            byte[] headerBytes = responseBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        if (coding != ContentEncoding.IDENTITY) head.append("Content-Encoding: ").append(ContentEncoding.name(coding)).append("\r\n");
+        if (isCompressible()) head.append("Vary: Accept-Encoding\r\n");
 
-            byte[] responseBytes = new byte[headerBytes.length + contentBytes.length];
-            System.arraycopy(headerBytes, 0, responseBytes, 0, headerBytes.length);
-            System.arraycopy(contentBytes, 0, responseBytes, headerBytes.length, contentBytes.length);
+        if (contentLength == UNTIL_CLOSE && hasBody()) connection = "close";
+        if (connection != null) head.append("Connection: ").append(connection).append("\r\n");
 
-            return responseBytes;
-        } else {
-            return responseBuilder.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+        if (!hasBody() || contentLength == UNTIL_CLOSE) head.append("\r\n");
+        else if (contentLength >= 0) head.append("Content-Length: ").append(contentLength).append("\r\n\r\n");
+        else head.append("Transfer-Encoding: chunked\r\n\r\n");
+        return head;
+    }
+
+    /**
+     * Check whether the status allows a body. Informational, 204 No Content and 304 Not Modified responses are
+     * sent without a body or any framing headers.
+     */
+    private boolean hasBody() {
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    /**
+     * Write all buffers in as few gathering writes as the channel allows. The first buffer may be null when
+     * the head it would hold has already been written.
+     */
+    private static long writeFully(GatheringByteChannel channel, ByteBuffer... buffers) throws IOException {
+        if (buffers[0] == null) buffers = Arrays.copyOfRange(buffers, 1, buffers.length);
+
+        long total = 0;
+        for (ByteBuffer buffer : buffers) total += buffer.remaining();
+        long remaining = total;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
         }
+        return total;
     }
-}
 
+    /**
+     * Content generator for responses whose body is produced while it is written.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+
+        /**
+         * Write the content.
+         *
+         * @param out The stream to write the content to. Closing it has no effect.
+         * @throws IOException If an I/O error occurs.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Growable byte array the response head is encoded into.
+     */
+    private static final class Head {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        Head append(String value) {
+            String text = String.valueOf(value);
+            ensureCapacity(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    byte[] encoded = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                    ensureCapacity(encoded.length);
+                    System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                    length += encoded.length;
+                    return this;
+                }
+                bytes[length++] = (byte) c;
+            }
+            return this;
+        }
+
+        Head append(long value) {
+            return append(Long.toString(value));
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * Frames everything written to it as chunks of at most {@link #CHUNK_SIZE} bytes. Each chunk goes out
+     * as one write, together with the response head for the first chunk when writing to a channel. Without
+     * chunking the buffered bytes are written as they are, for a body that is ended by closing the connection.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final GatheringByteChannel channel;
+        private final boolean chunked;
+        private ByteBuffer pendingHead;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count = 0;
+        private long written = 0;
+
+        ChunkedOutputStream(OutputStream out, GatheringByteChannel channel, ByteBuffer pendingHead, boolean chunked) {
+            this.out = out;
+            this.channel = channel;
+            this.pendingHead = pendingHead;
+            this.chunked = chunked;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) writeChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) writeChunk();
+                int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, copied);
+                count += copied;
+                off += copied;
+                len -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) writeChunk();
+            if (out != null) out.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void finish() throws IOException {
+            if (count > 0) writeChunk();
+            byte[] last = chunked ? LAST_CHUNK : EMPTY;
+            if (channel != null) {
+                written += writeFully(channel, pendingHead, ByteBuffer.wrap(last));
+                pendingHead = null;
+            } else {
+                out.write(last);
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (!chunked) {
+                if (channel != null) {
+                    written += writeFully(channel, pendingHead, ByteBuffer.wrap(buffer, 0, count));
+                    pendingHead = null;
+                } else {
+                    out.write(buffer, 0, count);
+                }
+                count = 0;
+                return;
+            }
+
+            byte[] size = (Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            if (channel != null) {
+                written += writeFully(channel, pendingHead, ByteBuffer.wrap(size), ByteBuffer.wrap(buffer, 0, count), ByteBuffer.wrap(CRLF));
+                pendingHead = null;
+            } else {
+                out.write(size);
+                out.write(buffer, 0, count);
+                out.write(CRLF);
+            }
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.github.voxxin.web.request;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads HTTP requests from a connection into a reusable byte buffer.
+ * <p>
+ * The request line and headers are scanned once, byte by byte, and only their offsets are recorded. The
+ * {@link FormattedRequest} returned by {@link #parse()} reads from the same buffer and creates strings only
+ * for the parts a route asks for. Header names are matched without regard to case. The buffer is reused
+ * until it is full; regions that requests were handed out from are never overwritten.
+ * <p>
+ * Request bodies are not buffered. {@link FormattedRequest#getBodyStream()} decodes {@code Content-Length} and
+ * {@code Transfer-Encoding: chunked} bodies straight from the connection as the route reads them. Transports
+ * that cannot block decode the body with {@link #decodeBody} as it arrives and hand it to the route through a
+ * stream of their own, see {@link #redirectBody(InputStream)}.
+ * <p>
+ * A parser belongs to a single connection and is not thread-safe.
+ */
+public class HttpRequestParser {
+    public static final int DEFAULT_MAX_HEAD_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_LINE_SIZE = 4 * 1024;
+
+    private final int maxHeadSize;
+    private final long maxBodySize;
+    private InputStream in;
+    private Body body;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer view = ByteBuffer.wrap(buffer);
+    private int start = 0;
+    private int limit = 0;
+    private boolean handedOut = false;
+
+    // State of the request being scanned, offsets are relative to start.
+    private int position = 0;
+    private int lineStart = 0;
+    private boolean requestLineRead = false;
+    private int[] offsets = new int[FormattedRequest.REQUEST_LINE_OFFSETS + 16 * FormattedRequest.HEADER_OFFSETS];
+    private int headerCount = 0;
+    private int headLength = -1;
+    private long contentLength = 0;
+    private boolean chunked = false;
+
+    /**
+     * Constructor for HttpRequestParser.
+     */
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEAD_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * Constructor for HttpRequestParser.
+     *
+     * @param maxHeadSize The maximum size of a request line and headers, in bytes.
+     * @param maxBodySize The maximum size of a decoded request body, in bytes.
+     */
+    public HttpRequestParser(int maxHeadSize, long maxBodySize) {
+        this.maxHeadSize = maxHeadSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Read the next request head from a blocking stream. The request's body stream keeps reading from the
+     * same stream.
+     *
+     * @param in The connection's input stream.
+     * @return The request, or null if the stream ended before another request started.
+     * @throws IOException If an I/O error occurs or the request is malformed.
+     */
+    public FormattedRequest next(InputStream in) throws IOException {
+        this.in = in;
+        FormattedRequest request;
+        while ((request = parse()) == null) {
+            if (!fill(in)) return null;
+        }
+        return request;
+    }
+
+    /**
+     * Read available bytes from a blocking stream into the buffer.
+     *
+     * @param in The input stream.
+     * @return False if the stream has ended.
+     * @throws IOException If an I/O error occurs or the pending request is too large.
+     */
+    public boolean fill(InputStream in) throws IOException {
+        ensureSpace();
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1) return false;
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Read available bytes from a channel into the buffer.
+     *
+     * @param channel The channel.
+     * @return The number of bytes read, or -1 if the channel has reached end-of-stream.
+     * @throws IOException If an I/O error occurs or the pending request is too large.
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        ensureSpace();
+        view.limit(buffer.length).position(limit);
+        int read = channel.read(view);
+        if (read > 0) limit += read;
+        return read;
+    }
+
+    /**
+     * Parse the next request head from the bytes read so far. The body of the previous request must have
+     * been read or skipped first.
+     *
+     * @return The request, or null if more bytes are needed.
+     * @throws ProtocolException If the request is malformed or too large.
+     */
+    public FormattedRequest parse() throws ProtocolException {
+        if (body != null && !body.finished) throw new IllegalStateException("The previous request body has not been read");
+        if (headLength == -1 && !scanHead()) return null;
+        if (contentLength > maxBodySize) throw new RequestTooLargeException("Request body exceeds " + maxBodySize + " bytes");
+
+        int[] requestOffsets = Arrays.copyOf(offsets, FormattedRequest.REQUEST_LINE_OFFSETS + headerCount * FormattedRequest.HEADER_OFFSETS);
+        body = chunked || contentLength > 0 ? new Body(chunked, contentLength) : null;
+        FormattedRequest request = new FormattedRequest(buffer, start, requestOffsets, headerCount, body);
+
+        start += headLength;
+        position = 0;
+        lineStart = 0;
+        requestLineRead = false;
+        headerCount = 0;
+        headLength = -1;
+        contentLength = 0;
+        chunked = false;
+
+        handedOut = true;
+        return request;
+    }
+
+    /**
+     * Check whether the current request has a body that has not been decoded to its end yet.
+     *
+     * @return Whether body bytes are still expected.
+     */
+    public boolean hasPendingBody() {
+        return body != null && !body.finished;
+    }
+
+    /**
+     * Decode bytes of the current request body from the bytes read so far, without blocking.
+     *
+     * @param b   The array to decode into.
+     * @param off The offset to start at.
+     * @param len The maximum number of bytes.
+     * @return The number of bytes decoded, 0 if more input is needed, or -1 at the end of the body.
+     * @throws IOException If the body is malformed or too large.
+     */
+    public int decodeBody(byte[] b, int off, int len) throws IOException {
+        if (body == null) return -1;
+        return body.decode(b, off, len);
+    }
+
+    /**
+     * Serve the current request body from another stream, which the transport fills with {@link #decodeBody} on its
+     * own thread. The request's body stream reads from it from now on.
+     *
+     * @param source The stream to read the body from.
+     */
+    public void redirectBody(InputStream source) {
+        if (body != null) body.source = source;
+    }
+
+    /**
+     * Skip whatever the route left unread of the current request body, so the next request can be parsed.
+     *
+     * @param maxSkip The most bytes worth reading just to keep the connection open.
+     * @return False if more than maxSkip bytes remained and the connection should be closed instead.
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean skipBody(long maxSkip) throws IOException {
+        if (body == null || body.finished) return true;
+        if (!body.chunked && body.remaining > maxSkip) return false;
+
+        long skipped = 0;
+        long count;
+        while ((count = body.skip(maxSkip - skipped + 1)) > 0) {
+            skipped += count;
+            if (skipped > maxSkip) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether bytes of a request that has not been returned yet are buffered.
+     *
+     * @return Whether unparsed bytes are buffered.
+     */
+    public boolean hasBufferedBytes() {
+        return start < limit;
+    }
+
+    /**
+     * Scan newly read bytes for the end of the request head, recording line offsets on the way.
+     *
+     * @return Whether the head is complete.
+     */
+    private boolean scanHead() throws ProtocolException {
+        int end = Math.min(limit - start, maxHeadSize + 1);
+        while (position < end) {
+            if (buffer[start + position++] != '\n') continue;
+
+            int lineEnd = position - 1;
+            if (lineEnd > lineStart && buffer[start + lineEnd - 1] == '\r') lineEnd--;
+
+            if (lineEnd == lineStart) {
+                if (requestLineRead) {
+                    headLength = position;
+                    return true;
+                }
+                // Clients may send empty lines between pipelined requests.
+                start += position;
+                end -= position;
+                position = 0;
+            } else if (!requestLineRead) {
+                readRequestLine(lineStart, lineEnd);
+                requestLineRead = true;
+            } else {
+                readHeader(lineStart, lineEnd);
+            }
+            lineStart = position;
+        }
+
+        if (position > maxHeadSize) throw new ProtocolException("Request head exceeds " + maxHeadSize + " bytes");
+        return false;
+    }
+
+    private void readRequestLine(int lineStart, int lineEnd) throws ProtocolException {
+        int methodEnd = indexOf(' ', lineStart, lineEnd);
+        int targetEnd = methodEnd == -1 ? -1 : indexOf(' ', methodEnd + 1, lineEnd);
+        if (methodEnd <= lineStart || targetEnd <= methodEnd + 1 || targetEnd + 1 >= lineEnd) {
+            throw new ProtocolException("Malformed request line");
+        }
+
+        offsets[0] = methodEnd;
+        offsets[1] = methodEnd + 1;
+        offsets[2] = targetEnd;
+        offsets[3] = targetEnd + 1;
+        offsets[4] = lineEnd;
+    }
+
+    private void readHeader(int lineStart, int lineEnd) throws ProtocolException {
+        int colon = indexOf(':', lineStart, lineEnd);
+        if (colon <= lineStart || isWhitespace(buffer[start + lineStart])) return;
+
+        int nameEnd = colon;
+        while (nameEnd > lineStart && isWhitespace(buffer[start + nameEnd - 1])) nameEnd--;
+        int valueStart = colon + 1;
+        while (valueStart < lineEnd && isWhitespace(buffer[start + valueStart])) valueStart++;
+        int valueEnd = lineEnd;
+        while (valueEnd > valueStart && isWhitespace(buffer[start + valueEnd - 1])) valueEnd--;
+
+        int o = FormattedRequest.REQUEST_LINE_OFFSETS + headerCount * FormattedRequest.HEADER_OFFSETS;
+        if (o + FormattedRequest.HEADER_OFFSETS > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[o] = lineStart;
+        offsets[o + 1] = nameEnd;
+        offsets[o + 2] = valueStart;
+        offsets[o + 3] = valueEnd;
+        headerCount++;
+
+        if (equalsIgnoreCase(lineStart, nameEnd, "content-length")) {
+            contentLength = parseContentLength(valueStart, valueEnd);
+        } else if (equalsIgnoreCase(lineStart, nameEnd, "transfer-encoding")) {
+            // Only the final coding decides how the body is framed.
+            int coding = valueEnd;
+            while (coding > valueStart && buffer[start + coding - 1] != ',') coding--;
+            while (coding < valueEnd && isWhitespace(buffer[start + coding])) coding++;
+            chunked = equalsIgnoreCase(coding, valueEnd, "chunked");
+            if (!chunked) throw new ProtocolException("Unsupported Transfer-Encoding");
+        }
+
+        // Transfer-Encoding overrides Content-Length.
+        if (chunked) contentLength = 0;
+    }
+
+    private long parseContentLength(int valueStart, int valueEnd) throws ProtocolException {
+        if (valueStart == valueEnd) throw new ProtocolException("Invalid Content-Length");
+
+        long length = 0;
+        for (int i = valueStart; i < valueEnd; i++) {
+            int digit = buffer[start + i] - '0';
+            if (digit < 0 || digit > 9) throw new ProtocolException("Invalid Content-Length");
+            length = length * 10 + digit;
+            if (length > maxBodySize) throw new RequestTooLargeException("Request body exceeds " + maxBodySize + " bytes");
+        }
+        return length;
+    }
+
+    /**
+     * Make room for more bytes, compacting the buffer or growing it up to the size of the pending request.
+     */
+    private void ensureSpace() throws ProtocolException {
+        if (limit < buffer.length) return;
+
+        if (start > 0) {
+            if (handedOut) {
+                // Returned requests still read from the consumed region, so leave it to them.
+                buffer = Arrays.copyOfRange(buffer, start, start + buffer.length);
+                view = ByteBuffer.wrap(buffer);
+                handedOut = false;
+            } else {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+            }
+            limit -= start;
+            start = 0;
+            return;
+        }
+
+        if (buffer.length > maxHeadSize) throw new ProtocolException("Request head exceeds " + maxHeadSize + " bytes");
+        buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxHeadSize + 1));
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[start + i] == c) return i;
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(int from, int to, String lowerCase) {
+        if (to - from != lowerCase.length()) return false;
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int c = buffer[start + from + i];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != lowerCase.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Find the next line feed in the buffered bytes.
+     *
+     * @return The absolute index of the line feed, or -1 if no complete line is buffered.
+     */
+    private int nextLineFeed() throws ProtocolException {
+        for (int i = start; i < limit; i++) {
+            if (buffer[i] == '\n') return i;
+        }
+        if (limit - start > MAX_CHUNK_LINE_SIZE) throw new ProtocolException("Chunk line exceeds " + MAX_CHUNK_LINE_SIZE + " bytes");
+        return -1;
+    }
+
+    /**
+     * Body of the most recently parsed request. Bytes are decoded from the parser's buffer, which is refilled
+     * from the blocking input stream when it runs dry, or read from the stream the body was redirected to.
+     */
+    private final class Body extends InputStream {
+        private static final int CHUNK_SIZE = 0, CHUNK_DATA = 1, CHUNK_END = 2, TRAILERS = 3;
+
+        private final boolean chunked;
+        private long remaining;
+        private int state = CHUNK_SIZE;
+        private long total = 0;
+        private boolean finished = false;
+        private final byte[] single = new byte[1];
+        private volatile InputStream source;
+
+        Body(boolean chunked, long contentLength) {
+            this.chunked = chunked;
+            this.remaining = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            InputStream source = this.source;
+            if (source != null) return source.read(b, off, len);
+
+            while (true) {
+                int count = decode(b, off, len);
+                if (count != 0) return count;
+                if (in == null) throw new IOException("Request body is not available");
+
+                if (!chunked && start == limit) {
+                    // Nothing buffered, read straight into the caller's array.
+                    count = in.read(b, off, (int) Math.min(len, remaining));
+                    if (count == -1) throw new EOFException("Connection closed before the request body was complete");
+                    remaining -= count;
+                    if (remaining == 0) finished = true;
+                    return count;
+                }
+                if (!fill(in)) throw new EOFException("Connection closed before the request body was complete");
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            InputStream source = this.source;
+            if (source != null) return source.available();
+            if (finished || chunked && state != CHUNK_DATA) return 0;
+            return (int) Math.min(remaining, limit - start);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipBuffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+                if (count == -1) break;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        /**
+         * Decode body bytes from the parser's buffer without blocking.
+         *
+         * @return The number of bytes decoded, 0 if more input is needed, or -1 at the end of the body.
+         */
+        int decode(byte[] b, int off, int len) throws IOException {
+            while (!finished) {
+                if (!chunked || state == CHUNK_DATA) {
+                    int count = (int) Math.min(Math.min(len, remaining), limit - start);
+                    if (count == 0) return 0;
+                    System.arraycopy(buffer, start, b, off, count);
+                    start += count;
+                    remaining -= count;
+                    if (remaining == 0) {
+                        if (chunked) state = CHUNK_END;
+                        else finished = true;
+                    }
+                    return count;
+                }
+
+                int lineFeed = nextLineFeed();
+                if (lineFeed == -1) return 0;
+                int lineStart = start;
+                start = lineFeed + 1;
+
+                if (state == CHUNK_SIZE) {
+                    long size = parseChunkSize(lineStart, lineFeed);
+                    total += size;
+                    if (total > maxBodySize) throw new RequestTooLargeException("Request body exceeds " + maxBodySize + " bytes");
+                    remaining = size;
+                    state = size == 0 ? TRAILERS : CHUNK_DATA;
+                } else if (state == CHUNK_END) {
+                    state = CHUNK_SIZE;
+                } else if (lineFeed == lineStart || lineFeed == lineStart + 1 && buffer[lineStart] == '\r') {
+                    finished = true;
+                }
+            }
+            return -1;
+        }
+
+        private long parseChunkSize(int from, int to) throws ProtocolException {
+            long size = 0;
+            int digits = 0;
+            for (int i = from; i < to; i++) {
+                int c = buffer[i];
+                int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+                if (digit == -1) break;
+                if (++digits > 15) throw new ProtocolException("Invalid chunk size");
+                size = size * 16 + digit;
+            }
+            if (digits == 0) throw new ProtocolException("Invalid chunk size");
+            return size;
+        }
+    }
+}
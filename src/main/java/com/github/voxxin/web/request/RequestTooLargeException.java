@@ -0,0 +1,14 @@
+package com.github.voxxin.web.request;
+
+import java.net.ProtocolException;
+
+/**
+ * Thrown when a request body is larger than the server accepts.
+ */
+public class RequestTooLargeException extends ProtocolException {
+    private static final long serialVersionUID = 1L;
+
+    public RequestTooLargeException(String message) {
+        super(message);
+    }
+}
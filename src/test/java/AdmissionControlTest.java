@@ -0,0 +1,118 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.WebServer;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+    private static final String REQUEST = "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    @Test
+    void rejectsConnectionsBeyondTheLimit() throws IOException, InterruptedException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0).transport(transport).maxConnections(1).retryAfter(7);
+            web.start();
+            try (TestClient first = new TestClient(web)) {
+                // Give the acceptor time to count the first connection before the second arrives.
+                Thread.sleep(100);
+                try (TestClient second = new TestClient(web)) {
+                    second.send(REQUEST);
+                    String response = second.readAll();
+                    assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"), response);
+                    assertTrue(response.contains("Retry-After: 7\r\n"), response);
+                    assertTrue(response.contains("Connection: close\r\n"), response);
+                }
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void stalledRequestsDoNotHoldUpOtherConnections() throws IOException, InterruptedException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            WebServer web = new WebServer(0, new AbstractRoute("/slow") {
+                @Override
+                public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                    running.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("slow").build());
+                    return outputStream;
+                }
+            }, new AbstractRoute("/fast") {
+                @Override
+                public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                    outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("fast").build());
+                    return outputStream;
+                }
+            }).transport(transport);
+            web.start();
+            try (TestClient first = new TestClient(web)) {
+                first.send("GET /slow HTTP/1.1\r\nConnection: close\r\n\r\n");
+                assertTrue(running.await(5, TimeUnit.SECONDS), transport.name());
+
+                // Answered while the first request is still stuck in its route.
+                String response = TestClient.exchange(web, "GET /fast HTTP/1.1\r\nConnection: close\r\n\r\n");
+                assertTrue(response.endsWith("fast"), transport.name() + ": " + response);
+                assertEquals(1, release.getCount(), transport.name());
+
+                release.countDown();
+                response = first.readAll();
+                assertTrue(response.endsWith("slow"), transport.name() + ": " + response);
+            } finally {
+                release.countDown();
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void rejectsRequestsWhenNoWorkerIsFree() throws IOException, InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WebServer web = new WebServer(0, new AbstractRoute("/slow") {
+            @Override
+            public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                running.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("done").build());
+                return outputStream;
+            }
+        }).transport(WebServer.Transport.NIO).workerThreads(1).maxQueuedRequests(0);
+        web.start();
+        try (TestClient first = new TestClient(web); TestClient second = new TestClient(web)) {
+            first.send(REQUEST);
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+
+            // The only worker is busy and nothing may queue behind it.
+            second.send(REQUEST);
+            assertTrue(second.readAll().startsWith("HTTP/1.1 503 "));
+
+            release.countDown();
+            first.send("GET /slow HTTP/1.1\r\nConnection: close\r\n\r\n");
+            String response = first.readAll();
+            assertTrue(response.startsWith("HTTP/1.1 200 "), response);
+            assertTrue(response.endsWith("done"), response);
+        } finally {
+            web.close();
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+import com.github.voxxin.web.FilePathRoute;
+import com.github.voxxin.web.WebServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AssetCacheTest {
+    private static final int SIZE = 10_000;
+
+    @Test
+    void internalFilesAreLoadedOnTheirFirstRequest() throws IOException, URISyntaxException {
+        Path directory = createResources("a.bin", "b.bin");
+        String name = directory.getFileName().toString();
+        WebServer web = new WebServer(0);
+        try {
+            web.addPublicDirPath(getClass(), "assets/" + name + "/", "public/", WebServer.PathType.INTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY);
+            FilePathRoute a = (FilePathRoute) web.routes.find("/public/a.bin");
+            FilePathRoute b = (FilePathRoute) web.routes.find("/public/b.bin");
+            assertNotNull(a);
+            assertNotNull(b);
+            assertNull(a.getETag());
+            assertNull(b.getETag());
+
+            assertTrue(body(a).endsWith(content('1')));
+            assertNotNull(a.getETag());
+            assertNull(b.getETag());
+        } finally {
+            web.close();
+            delete(directory);
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedFilesAreDroppedOnceTheCacheIsFull() throws IOException, URISyntaxException {
+        Path directory = createResources("a.bin", "b.bin", "c.bin");
+        String name = directory.getFileName().toString();
+        // Room for two of the files with their headers, not three.
+        WebServer web = new WebServer(0).assetCacheSize(3 * SIZE);
+        try {
+            web.addPublicDirPath(getClass(), "assets/" + name + "/", "public/", WebServer.PathType.INTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY);
+            FilePathRoute a = (FilePathRoute) web.routes.find("/public/a.bin");
+            FilePathRoute b = (FilePathRoute) web.routes.find("/public/b.bin");
+            FilePathRoute c = (FilePathRoute) web.routes.find("/public/c.bin");
+
+            assertTrue(body(a).endsWith(content('1')));
+            assertTrue(body(b).endsWith(content('1')));
+
+            // Only files that are loaded again see the new content.
+            for (String file : new String[]{"a.bin", "b.bin", "c.bin"}) {
+                Files.writeString(directory.resolve(file), content('2'));
+            }
+            assertTrue(body(a).endsWith(content('1')));
+            assertTrue(body(c).endsWith(content('2')));
+            assertTrue(body(a).endsWith(content('1')));
+            assertTrue(body(b).endsWith(content('2')));
+        } finally {
+            web.close();
+            delete(directory);
+        }
+    }
+
+    @Test
+    void internalFilesLargerThanTheCacheAreRejected() throws IOException, URISyntaxException {
+        Path directory = createResources("a.bin");
+        String name = directory.getFileName().toString();
+        WebServer web = new WebServer(0).assetCacheSize(SIZE / 2);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> web.addPublicDirPath(getClass(), "assets/" + name + "/", "public/", WebServer.PathType.INTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY));
+            assertNull(web.routes.find("/public/a.bin"));
+        } finally {
+            web.close();
+            delete(directory);
+        }
+    }
+
+    /**
+     * Create files next to the test resources, so they can be served as internal files.
+     */
+    private static Path createResources(String... files) throws IOException, URISyntaxException {
+        Path assets = Paths.get(AssetCacheTest.class.getClassLoader().getResource("assets").toURI());
+        Path directory = Files.createTempDirectory(assets, "cache");
+        for (String file : files) {
+            Files.writeString(directory.resolve(file), content('1'));
+        }
+        return directory;
+    }
+
+    private static String content(char c) {
+        return String.valueOf(c).repeat(SIZE);
+    }
+
+    private static String body(FilePathRoute route) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        route.handleRequests(null, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.WebServer;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionTimeoutTest {
+
+    @Test
+    void closesConnectionsThatStallInAnyPhase() throws IOException, InterruptedException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0, new AbstractRoute("/upload") {
+                @Override
+                public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                    int length = request.getBodyStream().readAllBytes().length;
+                    outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("read " + length).build());
+                    return outputStream;
+                }
+            }).transport(transport).keepAliveTimeout(300).headerTimeout(300).bodyTimeout(300);
+            web.start();
+            try {
+                // Headers trickled in slowly enough to defeat a timeout on single reads.
+                try (TestClient client = new TestClient(web)) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        for (char c : "GET /upload HTTP/1.1\r\nHost: localhost\r\n".toCharArray()) {
+                            client.send(String.valueOf(c));
+                            Thread.sleep(50);
+                        }
+                    } catch (IOException e) {
+                        // Closed by the server while trickling.
+                    }
+                    assertEquals("", read(client));
+                    assertTrue(System.currentTimeMillis() - start < 3000);
+                }
+
+                // A body that never arrives.
+                try (TestClient client = new TestClient(web)) {
+                    client.send("POST /upload HTTP/1.1\r\nContent-Length: 10\r\n\r\nabc");
+                    assertEquals("", read(client));
+                }
+
+                // An idle kept-alive connection after a complete request.
+                try (TestClient client = new TestClient(web)) {
+                    client.send("POST /upload HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc");
+                    String response = read(client);
+                    assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+                    assertTrue(response.endsWith("read 3"), response);
+                }
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    /**
+     * Read until the server closes the connection, which a reset does as well.
+     */
+    private static String read(TestClient client) throws IOException {
+        try {
+            return client.readAll();
+        } catch (SocketException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import com.github.voxxin.web.FilePathRoute;
+import com.github.voxxin.web.request.FormattedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilePathRouteTest {
+
+    @Test
+    void resolvesContentTypesFromExtensions() {
+        assertEquals("text/html", new FilePathRoute(new byte[0], "/index.html").getContentType());
+        assertEquals("image/webp", new FilePathRoute(new byte[0], "/img/ladies.WEBP").getContentType());
+        assertEquals("application/octet-stream", new FilePathRoute(new byte[0], "/v1.0/LICENSE").getContentType());
+    }
+
+    @Test
+    void servesThePreparedResponse() throws IOException {
+        FilePathRoute route = new FilePathRoute("body{}".getBytes(StandardCharsets.US_ASCII), "/style.css");
+
+        for (int i = 0; i < 2; i++) {
+            String response = serve(route, request());
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertTrue(response.contains("\r\nContent-Type: text/css\r\n"));
+            assertTrue(response.contains("\r\nETag: " + route.getETag() + "\r\n"));
+            assertTrue(response.endsWith("\r\nContent-Length: 6\r\n\r\nbody{}"));
+        }
+    }
+
+    @Test
+    void streamsAndMapsFilesFromDisk() throws IOException {
+        Path file = Files.createTempFile("route", ".txt");
+        try {
+            Files.writeString(file, "on disk");
+            for (boolean mapped : new boolean[]{false, true}) {
+                FilePathRoute route = new FilePathRoute(file, "/notes.txt", mapped);
+                assertEquals(file, route.getFile());
+
+                String response = serve(route, request());
+                assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+                assertTrue(response.contains("\r\nLast-Modified: "));
+                assertTrue(response.endsWith("\r\nContent-Length: 7\r\n\r\non disk"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void answersConditionalRequestsWithNotModified() throws IOException {
+        FilePathRoute route = new FilePathRoute("console.log(1)".getBytes(StandardCharsets.US_ASCII), "/app.js")
+                .lastModified(1_700_000_000_000L)
+                .cacheControl("public, max-age=60");
+        String etag = route.getETag();
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, new FilePathRoute("console.log(1)".getBytes(StandardCharsets.US_ASCII), "/other.js").getETag());
+
+        String notModified = serve(route, request("If-None-Match: \"stale\", " + etag));
+        assertTrue(notModified.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(notModified.contains("\r\nCache-Control: public, max-age=60\r\n"));
+        assertFalse(notModified.contains("Content-Length"));
+        assertTrue(notModified.endsWith("\r\n\r\n"));
+
+        assertTrue(serve(route, request("If-None-Match: \"stale\"")).startsWith("HTTP/1.1 200 OK"));
+        assertTrue(serve(route, request("If-Modified-Since: Tue, 14 Nov 2023 22:13:20 GMT")).startsWith("HTTP/1.1 304"));
+        assertTrue(serve(route, request("If-Modified-Since: Tue, 14 Nov 2023 22:13:19 GMT")).startsWith("HTTP/1.1 200"));
+        assertTrue(serve(route, request("If-Modified-Since: yesterday")).startsWith("HTTP/1.1 200"));
+    }
+
+    @Test
+    void servesPrecompressedVariants() throws IOException {
+        String css = "body { margin: 0; padding: 0; }\n".repeat(100);
+        FilePathRoute route = new FilePathRoute(css.getBytes(StandardCharsets.US_ASCII), "/site.css");
+
+        String identity = serve(route, request());
+        assertTrue(identity.contains("\r\nVary: Accept-Encoding\r\n"));
+        assertFalse(identity.contains("Content-Encoding"));
+        assertTrue(identity.endsWith(css));
+
+        byte[] gzip = serve(route, request("Accept-Encoding: gzip, deflate")).getBytes(StandardCharsets.ISO_8859_1);
+        String head = new String(gzip, StandardCharsets.ISO_8859_1);
+        int bodyStart = head.indexOf("\r\n\r\n") + 4;
+        head = head.substring(0, bodyStart);
+        assertTrue(head.contains("\r\nContent-Encoding: gzip\r\n"));
+        String variantTag = route.getETag().substring(0, route.getETag().length() - 1) + "-gzip\"";
+        assertTrue(head.contains("\r\nETag: " + variantTag + "\r\n"));
+        assertEquals(css, new String(new GZIPInputStream(new ByteArrayInputStream(gzip, bodyStart, gzip.length - bodyStart)).readAllBytes(), StandardCharsets.US_ASCII));
+
+        assertTrue(serve(route, request("Accept-Encoding: gzip", "If-None-Match: " + variantTag)).startsWith("HTTP/1.1 304"));
+        assertTrue(serve(route, request("If-None-Match: " + variantTag)).startsWith("HTTP/1.1 200"));
+    }
+
+    @Test
+    void servesByteRanges() throws IOException {
+        byte[] digits = "0123456789".repeat(10).getBytes(StandardCharsets.US_ASCII);
+        Path file = Files.createTempFile("range", ".bin");
+        try {
+            Files.write(file, digits);
+            for (FilePathRoute route : new FilePathRoute[]{
+                    new FilePathRoute(digits, "/digits.bin"),
+                    new FilePathRoute(file, "/digits.bin", false),
+                    new FilePathRoute(file, "/digits.bin", true)}) {
+                String single = serve(route, request("Range: bytes=10-14"));
+                assertTrue(single.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+                assertTrue(single.contains("\r\nContent-Range: bytes 10-14/100\r\n"));
+                assertTrue(single.endsWith("\r\nContent-Length: 5\r\n\r\n01234"));
+
+                assertTrue(serve(route, request("Range: bytes=-3")).endsWith("\r\n\r\n789"));
+                assertTrue(serve(route, request("Range: bytes=98-")).endsWith("\r\n\r\n89"));
+
+                String multi = serve(route, request("Range: bytes=0-1, 50-52"));
+                assertTrue(multi.contains("\r\nContent-Type: multipart/byteranges; boundary="));
+                assertTrue(multi.contains("Content-Range: bytes 0-1/100\r\n\r\n01\r\n--"));
+                assertTrue(multi.contains("Content-Range: bytes 50-52/100\r\n\r\n012\r\n--"));
+                int bodyStart = multi.indexOf("\r\n\r\n") + 4;
+                assertTrue(multi.contains("Content-Length: " + (multi.length() - bodyStart) + "\r\n"));
+                assertTrue(multi.endsWith("--\r\n"));
+
+                String unsatisfiable = serve(route, request("Range: bytes=100-"));
+                assertTrue(unsatisfiable.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+                assertTrue(unsatisfiable.contains("\r\nContent-Range: bytes */100\r\n"));
+
+                assertTrue(serve(route, request("Range: bytes=10-14", "If-Range: " + route.getETag())).startsWith("HTTP/1.1 206"));
+                assertTrue(serve(route, request("Range: bytes=10-14", "If-Range: \"stale\"")).startsWith("HTTP/1.1 200"));
+                assertTrue(serve(route, request("Range: items=1-2")).startsWith("HTTP/1.1 200"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static FormattedRequest request(String... headers) {
+        List<String> lines = new ArrayList<>();
+        lines.add("GET /file HTTP/1.1");
+        lines.addAll(List.of(headers));
+        return new FormattedRequest(lines);
+    }
+
+    private static String serve(FilePathRoute route, FormattedRequest request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        route.handleRequests(request, out);
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,127 @@
+import com.github.voxxin.web.request.ContentEncoding;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormattedResponseTest {
+
+    @Test
+    void buildsHeadAndBody() {
+        String response = new String(new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .contentType("text/plain")
+                .content("h\u00e9llo")
+                .build(), StandardCharsets.UTF_8);
+
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 6\r\n\r\nh\u00e9llo", response);
+    }
+
+    @Test
+    void streamsContentOfUnknownLengthAsChunks() throws IOException {
+        FormattedResponse response = new FormattedResponse()
+                .statusCode(200)
+                .statusMessage("OK")
+                .content(out -> {
+                    out.write("Hello".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    out.write(", world".getBytes(StandardCharsets.US_ASCII));
+                });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeTo(out);
+
+        assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nHello\r\n7\r\n, world\r\n0\r\n\r\n", out.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void writesFilesAndStreamsToChannels() throws IOException {
+        byte[] content = new byte[100_000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        Path source = Files.createTempFile("response", ".bin");
+        Path target = Files.createTempFile("response", ".out");
+        try {
+            Files.write(source, content);
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                new FormattedResponse().statusCode(200).statusMessage("OK").content(source).writeTo(channel);
+                new FormattedResponse().statusCode(200).statusMessage("OK").content(new ByteArrayInputStream(content), content.length).writeTo(channel);
+            }
+
+            String head = "HTTP/1.1 200 OK\r\nContent-Length: 100000\r\n\r\n";
+            byte[] written = Files.readAllBytes(target);
+            assertEquals(2 * (head.length() + content.length), written.length);
+            assertEquals(head, new String(written, 0, head.length(), StandardCharsets.US_ASCII));
+            assertEquals(content[99_999], written[head.length() + 99_999]);
+            assertEquals(head, new String(written, head.length() + content.length, head.length(), StandardCharsets.US_ASCII));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    void negotiatesTheContentCoding() {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.select("gzip, deflate, br", true, true));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.select("gzip;q=0.5, deflate", true, true));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.select("gzip", false, true));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.select("gzip;q=0, deflate;q=0", true, true));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.select("*", true, true));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.select(null, true, true));
+        assertTrue(ContentEncoding.isCompressible("text/html; charset=utf-8"));
+        assertTrue(ContentEncoding.isCompressible("image/svg+xml"));
+        assertFalse(ContentEncoding.isCompressible("image/png"));
+    }
+
+    @Test
+    void compressesLargeTextResponses() throws IOException {
+        String text = "<p>repeated paragraph</p>\n".repeat(200);
+
+        byte[] gzip = new FormattedResponse().statusCode(200).statusMessage("OK").contentType("text/html")
+                .content(text).compress("deflate;q=0.5, gzip").build();
+        int bodyStart = indexOf(gzip, "\r\n\r\n") + 4;
+        String head = new String(gzip, 0, bodyStart, StandardCharsets.US_ASCII);
+        assertTrue(head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head.contains("Vary: Accept-Encoding\r\n"));
+        assertTrue(head.contains("Content-Length: " + (gzip.length - bodyStart) + "\r\n"));
+        assertEquals(text, new String(new GZIPInputStream(new ByteArrayInputStream(gzip, bodyStart, gzip.length - bodyStart)).readAllBytes(), StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FormattedResponse().statusCode(200).statusMessage("OK").contentType("text/plain")
+                .content(stream -> stream.write(text.getBytes(StandardCharsets.UTF_8))).compress("deflate").writeTo(out);
+        String streamed = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(streamed.contains("Content-Encoding: deflate\r\nVary: Accept-Encoding\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        int chunkStart = streamed.indexOf("\r\n", streamed.indexOf("\r\n\r\n") + 4) + 2;
+        int chunkLength = Integer.parseInt(streamed.substring(streamed.indexOf("\r\n\r\n") + 4, chunkStart - 2), 16);
+        byte[] chunk = streamed.substring(chunkStart, chunkStart + chunkLength).getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(text, new String(new InflaterInputStream(new ByteArrayInputStream(chunk)).readAllBytes(), StandardCharsets.UTF_8));
+
+        String small = new String(new FormattedResponse().statusCode(200).statusMessage("OK").contentType("text/plain")
+                .content("tiny").compress("gzip").build(), StandardCharsets.US_ASCII);
+        assertFalse(small.contains("Content-Encoding"));
+        assertTrue(small.endsWith("\r\n\r\ntiny"));
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        byte[] needle = text.getBytes(StandardCharsets.US_ASCII);
+        outer:
+        for (int i = 0; i <= bytes.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+import com.github.voxxin.web.element.HtmlElement;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlElementTest {
+
+    @Test
+    void addsSetsAndRemovesAttributes() throws IOException {
+        HtmlElement element = new HtmlElement("div")
+                .addAttribute("id", "main")
+                .addAttribute("class", "a")
+                .addAttribute("class", "b")
+                .addAttributes("class", List.of("c"))
+                .addAttributes("hidden", List.of());
+        assertEquals(List.of("a", "b", "c"), element.getAttributes("class"));
+        assertEquals("a b c", element.getAttributesAsString("class"));
+        assertEquals(List.of(), element.getAttributes("hidden"));
+        assertEquals(List.of(), element.getAttributes("missing"));
+        assertEquals("<div id=\"main\"  class=\"a b c\"  hidden=\"\" ></div>", render(element));
+
+        element.removeAttribute("class");
+        assertEquals("<div id=\"main\"  hidden=\"\" ></div>", render(element));
+
+        element.setAttribute("title", "x");
+        assertEquals(List.of(), element.getAttributes("id"));
+        assertEquals("<div title=\"x\" ></div>", render(element));
+
+        HashMap<String, List<String>> attributes = new HashMap<>();
+        attributes.put("lang", List.of("en"));
+        element.setAttributes(attributes);
+        attributes.put("dir", List.of("ltr"));
+        assertEquals("<div lang=\"en\" ></div>", render(element));
+        assertThrows(UnsupportedOperationException.class, () -> element.getAttributes("lang").add("de"));
+    }
+
+    @Test
+    void addsReplacesAndRemovesSubElements() throws IOException {
+        HtmlElement first = new HtmlElement("li");
+        HtmlElement second = new HtmlElement("li");
+        HtmlElement list = new HtmlElement("ul").addSubElement(first);
+        List<HtmlElement> view = list.getSubElements();
+
+        list.addSubElements(second, new HtmlElement("li"));
+        assertEquals(3, view.size());
+        assertSame(second, view.get(1));
+
+        list.removeSubElement(second);
+        assertEquals(List.of(first), view.subList(0, 1));
+        assertEquals(2, view.size());
+        assertThrows(UnsupportedOperationException.class, () -> view.add(second));
+
+        list.addSubElements(list.getSubElements());
+        assertEquals(4, view.size());
+
+        list.setStringSubElement("text");
+        assertTrue(view.isEmpty());
+        assertEquals("<ul> text</ul>", render(list));
+
+        list.setSubElements(List.of(first));
+        assertNull(list.getStringSubElement());
+        assertEquals("<ul>\n  <li></li>\n</ul>", render(list));
+    }
+
+    @Test
+    void memoizedElementsRenderChangesBelowThem() throws IOException {
+        List<Consumer<HtmlElement[]>> changes = List.of(
+                page -> page[1].addAttribute("class", "title"),
+                page -> page[1].setAttribute("id", "heading"),
+                page -> page[1].removeAttribute("id"),
+                page -> page[1].setStringSubElement("Changed"),
+                page -> page[2].addSubElement(new HtmlElement("li").setStringSubElement("three")),
+                page -> page[2].removeSubElement(page[2].getSubElements().get(0)),
+                page -> page[3].setSubElements(List.of(new HtmlElement("p").setStringSubElement("footer"))),
+                page -> page[0].addSubElementsFromString("<footer><p>end</p></footer>"));
+
+        HtmlElement[] memoized = page(true);
+        HtmlElement[] plain = page(false);
+        assertEquals(render(plain[0]), render(memoized[0]));
+        for (Consumer<HtmlElement[]> change : changes) {
+            change.accept(memoized);
+            change.accept(plain);
+            assertEquals(render(plain[0]), render(memoized[0]));
+            assertEquals(render(plain[0]), render(memoized[0]));
+        }
+    }
+
+    @Test
+    void sharedMemoizedElementsUpdateEveryPage() throws IOException {
+        HtmlElement title = new HtmlElement("title").setStringSubElement("Shop");
+        HtmlElement head = new HtmlElement("head").addSubElement(title).setMemoized(true);
+        HtmlElement first = new HtmlElement("html").addSubElement(head).setMemoized(true);
+        HtmlElement second = new HtmlElement("html").addSubElements(new HtmlElement("body"), head).setMemoized(true);
+        render(first);
+        render(second);
+
+        title.setStringSubElement("Sale");
+        assertTrue(render(first).contains("Sale"));
+        assertTrue(render(second).contains("Sale"));
+
+        first.removeSubElement(head);
+        assertEquals("<html></html>", render(first));
+        title.setStringSubElement("Closed");
+        assertTrue(render(second).contains("Closed"));
+    }
+
+    private static HtmlElement[] page(boolean memoized) {
+        HtmlElement heading = new HtmlElement("h1").setStringSubElement("Title");
+        HtmlElement list = new HtmlElement("ul").addSubElements(
+                new HtmlElement("li").setStringSubElement("one"),
+                new HtmlElement("li").setStringSubElement("two"));
+        HtmlElement nav = new HtmlElement("nav").addSubElement(new HtmlElement("a").addAttribute("href", "/"));
+        HtmlElement body = new HtmlElement("body").addSubElements(nav.setMemoized(memoized), heading, list.setMemoized(memoized));
+        HtmlElement html = new HtmlElement("html").addSubElement(body).setMemoized(memoized);
+        return new HtmlElement[]{html, heading, list, nav};
+    }
+
+    private static String render(HtmlElement element) throws IOException {
+        StringBuilder out = new StringBuilder();
+        element.renderTo(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,132 @@
+import com.github.voxxin.web.element.HtmlElement;
+import com.github.voxxin.web.element.HtmlHandler;
+import com.github.voxxin.web.element.HtmlParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlParserTest {
+
+    @Test
+    void parsesNestedElementsAndText() {
+        List<HtmlElement> elements = HtmlParser.parseHtmlString("<!DOCTYPE html><html><body><div class=\"a b\"><p>one</p><br><p>two &amp; <b>three</b></p></div></body></html>");
+        assertEquals(2, elements.size());
+        assertEquals("!DOCTYPE", elements.get(0).getTagName());
+
+        HtmlElement div = elements.get(1).getSubElements().get(0).getSubElements().get(0);
+        assertEquals(List.of("a", "b"), div.getAttributes("class"));
+        assertEquals(3, div.getSubElements().size());
+        assertEquals("one", div.getSubElements().get(0).getStringSubElement());
+        assertEquals("br", div.getSubElements().get(1).getTagName());
+        assertEquals("b", div.getSubElements().get(2).getSubElements().get(0).getTagName());
+    }
+
+    @Test
+    void parsesAttributes() {
+        HtmlElement input = HtmlParser.parseHtmlString("<input data-id='7' title=\"a > b\" value=x disabled/>").get(0);
+        assertEquals("input", input.getTagName());
+        assertEquals(List.of("7"), input.getAttributes("data-id"));
+        assertEquals(List.of("a", ">", "b"), input.getAttributes("title"));
+        assertEquals(List.of("x"), input.getAttributes("value"));
+        assertEquals(List.of(), input.getAttributes("disabled"));
+        assertNull(input.getStringSubElement());
+    }
+
+    @Test
+    void keepsScriptAndCommentsAsText() {
+        HtmlElement script = HtmlParser.parseHtmlString("<script>if (a < b && c > d) x = '</p>';</script>").get(0);
+        assertEquals("if (a < b && c > d) x = '</p>';", script.getStringSubElement());
+
+        HtmlElement p = HtmlParser.parseHtmlString("<p>a<!-- <b>no</b> -->b</p>").get(0);
+        assertEquals("a<!-- <b>no</b> -->b", p.getStringSubElement());
+    }
+
+    @Test
+    void reportsEventsInOrder() {
+        List<String> events = new ArrayList<>();
+        HtmlParser.parse("<ul id=list><li>a</li><!--c--><img src=x /></ul>", new HtmlHandler() {
+            @Override
+            public void startElement(String tagName, Map<String, List<String>> attributes, boolean selfClosing) {
+                events.add("start " + tagName + " " + attributes + (selfClosing ? " /" : ""));
+            }
+
+            @Override
+            public void endElement(String tagName) {
+                events.add("end " + tagName);
+            }
+
+            @Override
+            public void text(String text) {
+                events.add("text " + text);
+            }
+
+            @Override
+            public void comment(String comment) {
+                events.add("comment " + comment);
+            }
+        });
+        assertEquals(List.of("start ul {id=[list]}", "start li {}", "text a", "end li", "comment c",
+                "start img {src=[x]} /", "end ul"), events);
+    }
+
+    @Test
+    void leavesElementsThatAreNotClosedInTimeEmpty() {
+        HtmlElement div = HtmlParser.parseHtmlString("<div><p>one<span>two</span></div><p>three</p>").get(0);
+        assertEquals(2, div.getSubElements().size());
+        assertEquals("p", div.getSubElements().get(0).getTagName());
+        assertNull(div.getSubElements().get(0).getStringSubElement());
+        assertEquals("two", div.getSubElements().get(1).getStringSubElement());
+
+        // End tags inside scripts do not close anything.
+        List<HtmlElement> elements = HtmlParser.parseHtmlString("<script>'</li>'</script><li>a<li>b");
+        assertEquals(3, elements.size());
+        assertTrue(elements.get(1).getSubElements().isEmpty());
+        assertNull(elements.get(1).getStringSubElement());
+        assertEquals("li", elements.get(2).getTagName());
+    }
+
+    @Test
+    void parsesLargeDocuments() {
+        List<HtmlElement> elements = HtmlParser.parseHtmlString(list(20000, true));
+        assertEquals(20000, elements.get(0).getSubElements().size());
+        assertEquals("Item 19999", elements.get(0).getSubElements().get(19999).getStringSubElement().trim());
+
+        elements = HtmlParser.parseHtmlString(list(20000, false));
+        assertEquals(20000, elements.get(0).getSubElements().size());
+    }
+
+    @Test
+    void parseTimeGrowsLinearly() {
+        for (boolean closed : new boolean[]{true, false}) {
+            String small = list(10_000, closed);
+            String large = list(100_000, closed);
+            // Ten times the input should take about ten times as long. A quadratic parser takes a hundred times.
+            long smallNanos = bestParseTime(small);
+            long largeNanos = bestParseTime(large);
+            assertTrue(largeNanos < 40 * smallNanos, "10x input took " + largeNanos / (double) smallNanos + "x as long");
+        }
+    }
+
+    private static long bestParseTime(String html) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            HtmlParser.parseHtmlString(html);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static String list(int items, boolean closed) {
+        StringBuilder html = new StringBuilder("<ul>");
+        for (int i = 0; i < items; i++) {
+            html.append("<li class=\"item\">Item ").append(i);
+            if (closed) html.append("</li>");
+        }
+        return html.append("</ul>").toString();
+    }
+}
@@ -0,0 +1,48 @@
+import com.github.voxxin.web.element.HtmlElement;
+import com.github.voxxin.web.element.HtmlElementBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlRenderTest {
+
+    @Test
+    void rendersTheSameHtmlAsBefore() throws IOException {
+        HtmlElementBuilder builder = new HtmlElementBuilder()
+                .addElement("<!DOCTYPE html>")
+                .addElement(new HtmlElement("div").addAttributes("class", List.of("a", "b")).addSubElements(
+                        new HtmlElement("p").setStringSubElement("text"),
+                        new HtmlElement("br")));
+
+        String expected = "<!DOCTYPE html>\n<div class=\"a b\" >\n  <p> text</p>\n  <br></br>\n</div>\n";
+        assertEquals(expected, builder.build());
+
+        StringBuilder appended = new StringBuilder();
+        builder.renderTo(appended);
+        assertEquals(expected, appended.toString());
+    }
+
+    @Test
+    void encodesUtf8AcrossBufferBoundaries() throws IOException {
+        HtmlElement list = new HtmlElement("ul");
+        for (int i = 0; i < 2000; i++) {
+            list.addSubElement(new HtmlElement("li").addAttribute("title", "caf\u00e9 " + i).setStringSubElement("\u2603 \uD83C\uDF70 item " + i));
+        }
+        list.addSubElement(new HtmlElement("li").setStringSubElement("broken \uD83C surrogate \uDF70"));
+        HtmlElementBuilder builder = new HtmlElementBuilder().addElement(list);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.renderTo(out);
+        assertArrayEquals(builder.build().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+        // The buffer is reused by the next render on this thread.
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        list.renderTo(again);
+        assertArrayEquals(builder.build().trim().getBytes(StandardCharsets.UTF_8), again.toByteArray());
+    }
+}
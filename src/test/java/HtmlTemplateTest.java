@@ -0,0 +1,53 @@
+import com.github.voxxin.web.element.HtmlElement;
+import com.github.voxxin.web.element.HtmlElementBuilder;
+import com.github.voxxin.web.element.HtmlTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlTemplateTest {
+
+    private static HtmlElement page(String title, String link, HtmlElement content) {
+        return new HtmlElement("html").addSubElements(
+                new HtmlElement("head").addSubElement(new HtmlElement("title").setStringSubElement(title)),
+                new HtmlElement("body").addSubElements(
+                        new HtmlElement("h1").setStringSubElement(title),
+                        new HtmlElement("a").addAttribute("href", link).setStringSubElement("more"),
+                        content));
+    }
+
+    @Test
+    void fillsSlotsWithTextElementsAndBytes() throws IOException {
+        HtmlTemplate template = HtmlTemplate.compile(new HtmlElementBuilder()
+                .addElement("<!DOCTYPE html>")
+                .addElement(page(HtmlTemplate.slot("title"), HtmlTemplate.slot("link"), HtmlTemplate.slotElement("content"))));
+        assertEquals(List.of("title", "link", "content"), template.getSlots());
+
+        HtmlElement content = new HtmlElement("p").setStringSubElement("café 🍰");
+        String expected = new HtmlElementBuilder()
+                .addElement("<!DOCTYPE html>")
+                .addElement(page("Hello", "/more?page=2", content))
+                .build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.renderTo(out, template.values().set("title", "Hello").set("link", "/more?page=2").set("content", content));
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+
+        byte[] rendered = new HtmlElementBuilder().addElement(content).build().trim().getBytes(StandardCharsets.UTF_8);
+        byte[] fromBytes = template.toBytes(template.values().set("title", "Hello").set("link", "/more?page=2").set("content", rendered));
+        assertEquals(expected, new String(fromBytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void leavesUnsetSlotsEmpty() {
+        HtmlTemplate template = HtmlTemplate.compile(new HtmlElement("p").setStringSubElement(HtmlTemplate.slot("text")));
+        assertEquals("<p> </p>", new String(template.toBytes(template.values()), StandardCharsets.UTF_8));
+        assertEquals("<p> </p>".length(), template.getStaticLength());
+        assertThrows(IllegalArgumentException.class, () -> template.values().set("other", "x"));
+    }
+}
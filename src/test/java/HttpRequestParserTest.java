@@ -0,0 +1,121 @@
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.HttpRequestParser;
+import com.github.voxxin.web.request.RequestTooLargeException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpRequestParserTest {
+
+    private static InputStream stream(String request) {
+        return new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesRequestLineQueryAndHeaders() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        FormattedRequest request = parser.next(stream("GET /search:page?q=melody&lang HTTP/1.1\r\nHost: localhost\r\nX-Empty:\r\n\r\n"));
+
+        assertEquals("GET", request.getMethod());
+        assertEquals("/search", request.getPath());
+        assertEquals("page", request.getPathParameters());
+        assertEquals("melody", request.getQuery().get("q"));
+        assertEquals("", request.getQuery().get("lang"));
+        assertEquals("HTTP/1.1", request.getHttpVersion());
+        assertEquals("localhost", request.getHeader("host"));
+        assertEquals("", request.getHeaders().get("X-Empty"));
+        assertNull(request.getHeader("Connection"));
+        assertNull(request.getBody());
+    }
+
+    @Test
+    void skipsEmptyQueryPairs() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        FormattedRequest request = parser.next(stream("GET /search?a=1&&b=2& HTTP/1.1\r\n\r\n"));
+
+        assertEquals(2, request.getQuery().size());
+        assertEquals("1", request.getQuery().get("a"));
+        assertEquals("2", request.getQuery().get("b"));
+        assertTrue(parser.next(stream("GET /search? HTTP/1.1\r\n\r\n")).getQuery().isEmpty());
+    }
+
+    @Test
+    void readsPipelinedRequestsWithAnyHeaderCase() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        InputStream in = stream("POST /form HTTP/1.1\r\ncontent-LENGTH: 7\r\n\r\na=b&c=dGET /next HTTP/1.0\n\n");
+
+        FormattedRequest post = parser.next(in);
+        assertEquals("a=b&c=d", post.getBody());
+
+        FormattedRequest get = parser.next(in);
+        assertEquals("/next", get.getPath());
+        assertEquals("HTTP/1.0", get.getHttpVersion());
+        assertNull(parser.next(in));
+    }
+
+    @Test
+    void requestsStayValidWhenTheBufferIsReused() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            requests.append("GET /page/").append(i).append(" HTTP/1.1\r\nX-Index: ").append(i).append("\r\n\r\n");
+        }
+
+        HttpRequestParser parser = new HttpRequestParser();
+        InputStream in = stream(requests.toString());
+        FormattedRequest first = parser.next(in);
+        for (int i = 1; i < 500; i++) {
+            assertEquals(String.valueOf(i), parser.next(in).getHeader("x-index"));
+        }
+        assertEquals("/page/0", first.getPath());
+        assertEquals("0", first.getHeader("X-Index"));
+    }
+
+    @Test
+    void decodesChunkedBodiesAndStreamsLargeOnes() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] upload = new byte[1_000_000];
+        for (int i = 0; i < upload.length; i++) upload[i] = (byte) i;
+
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        requests.write("POST /chunked HTTP/1.1\r\nTransfer-Encoding: gzip, Chunked\r\n\r\n5;ext=1\r\nHello\r\n7\r\n, world\r\n0\r\nX-Trailer: yes\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        requests.write(("PUT /upload HTTP/1.1\r\nContent-Length: " + upload.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        requests.write(upload);
+        requests.write("GET /after HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        InputStream in = new ByteArrayInputStream(requests.toByteArray());
+
+        assertEquals("Hello, world", parser.next(in).getBody());
+
+        InputStream body = parser.next(in).getBodyStream();
+        byte[] read = new byte[upload.length];
+        int total = 0;
+        int count;
+        while ((count = body.read(read, total, Math.min(4096, read.length - total))) > 0) total += count;
+        assertEquals(upload.length, total);
+        assertArrayEquals(upload, read);
+        assertEquals(-1, body.read());
+
+        assertEquals("/after", parser.next(in).getPath());
+    }
+
+    @Test
+    void enforcesTheMaximumBodySize() throws IOException {
+        assertThrows(RequestTooLargeException.class, () -> new HttpRequestParser(1024, 10).next(stream("POST / HTTP/1.1\r\nContent-Length: 11\r\n\r\n")));
+
+        FormattedRequest chunked = new HttpRequestParser(1024, 10).next(stream("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n6\r\nabcdef\r\n6\r\nghijkl\r\n0\r\n\r\n"));
+        assertThrows(RequestTooLargeException.class, () -> chunked.getBodyStream().readAllBytes());
+    }
+
+    @Test
+    void rejectsMalformedRequests() {
+        assertThrows(ProtocolException.class, () -> new HttpRequestParser().next(stream("GARBAGE\r\n\r\n")));
+        assertThrows(ProtocolException.class, () -> new HttpRequestParser().next(stream("GET / HTTP/1.1\r\nContent-Length: x\r\n\r\n")));
+        assertThrows(ProtocolException.class, () -> new HttpRequestParser(64, HttpRequestParser.DEFAULT_MAX_BODY_SIZE).next(stream("GET / HTTP/1.1\r\nX-Long: " + "a".repeat(100) + "\r\n\r\n")));
+    }
+}
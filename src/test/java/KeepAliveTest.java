@@ -0,0 +1,344 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.FilePathRoute;
+import com.github.voxxin.web.ResponseCache;
+import com.github.voxxin.web.WebServer;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeepAliveTest {
+
+    @Test
+    void headResponsesLeaveThePipelineIntact() throws IOException {
+        byte[] file = new byte[100_000];
+        for (int i = 0; i < file.length; i++) file[i] = (byte) i;
+        Path disk = Files.createTempFile("keepalive", ".bin");
+        Files.write(disk, file);
+        try {
+            for (WebServer.Transport transport : WebServer.Transport.values()) {
+                WebServer web = new WebServer(0,
+                        new AbstractRoute("/page") {
+                            @Override
+                            public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                                outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("hello").build());
+                                return outputStream;
+                            }
+                        },
+                        new AbstractRoute("/streamed") {
+                            @Override
+                            public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                                new FormattedResponse().statusCode(200).statusMessage("OK")
+                                        .content(out -> out.write("streamed".getBytes(StandardCharsets.US_ASCII)))
+                                        .writeTo(outputStream);
+                                return outputStream;
+                            }
+                        },
+                        new AbstractRoute("/none"),
+                        new AbstractRoute("/super") {
+                            @Override
+                            public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                                new FormattedResponse().statusCode(200).statusMessage("OK").content("mine").writeTo(outputStream);
+                                return super.handleRequests(request, outputStream);
+                            }
+                        },
+                        new AbstractRoute("/cached") {
+                            @Override
+                            public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                                outputStream.write(new FormattedResponse().statusCode(200).statusMessage("OK").content("cached").build());
+                                return super.handleRequests(request, outputStream);
+                            }
+                        }.cache(new ResponseCache(0)),
+                        new FilePathRoute("small".getBytes(StandardCharsets.US_ASCII), "/small.txt"),
+                        new FilePathRoute(disk, "/disk.bin", false),
+                        new FilePathRoute(disk, "/mapped.bin", true)).transport(transport);
+                web.start();
+                try (TestClient client = new TestClient(web)) {
+                    client.send(
+                            "HEAD /page HTTP/1.1\r\n\r\n"
+                                    + "GET /page HTTP/1.1\r\n\r\n"
+                                    + "HEAD /streamed HTTP/1.1\r\n\r\n"
+                                    + "HEAD /small.txt HTTP/1.1\r\n\r\n"
+                                    + "HEAD /disk.bin HTTP/1.1\r\n\r\n"
+                                    + "HEAD /mapped.bin HTTP/1.1\r\n\r\n"
+                                    + "GET /none HTTP/1.1\r\n\r\n"
+                                    + "GET /super HTTP/1.1\r\n\r\n"
+                                    + "GET /cached HTTP/1.1\r\n\r\n"
+                                    + "GET /cached HTTP/1.1\r\n\r\n"
+                                    + "GET /disk.bin HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+                    String head = client.readHead();
+                    assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"), head);
+                    assertTrue(head.contains("Content-Length: 5\r\n"), head);
+                    assertEquals("hello", client.readText());
+                    assertTrue(client.readHead().contains("Transfer-Encoding: chunked\r\n"));
+                    assertTrue(client.readHead().contains("Content-Length: 5\r\n"));
+                    assertTrue(client.readHead().contains("Content-Length: 100000\r\n"), transport.name());
+                    assertTrue(client.readHead().contains("Content-Length: 100000\r\n"), transport.name());
+
+                    head = client.readHead();
+                    assertTrue(head.startsWith("HTTP/1.1 501 Not Implemented\r\n"), head);
+                    assertEquals("Not Implemented", new String(client.readBody(head), StandardCharsets.US_ASCII));
+
+                    // Routes that call the default after answering do not get a second response appended.
+                    head = client.readHead();
+                    assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"), head);
+                    assertEquals("mine", new String(client.readBody(head), StandardCharsets.US_ASCII));
+                    for (int i = 0; i < 2; i++) {
+                        head = client.readHead();
+                        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"), head);
+                        assertEquals("cached", new String(client.readBody(head), StandardCharsets.US_ASCII));
+                    }
+
+                    assertArrayEquals(file, client.readBody(client.readHead()));
+                    assertEquals(-1, client.read());
+                } finally {
+                    web.close();
+                }
+            }
+        } finally {
+            Files.delete(disk);
+        }
+    }
+
+    @Test
+    void filesAndRangesAreSentInOrder() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 300_000; i++) text.append("line ").append(i).append('\n');
+        byte[] file = text.toString().getBytes(StandardCharsets.US_ASCII);
+        Path disk = Files.createTempFile("keepalive", ".bin");
+        Files.write(disk, file);
+        try {
+            for (WebServer.Transport transport : WebServer.Transport.values()) {
+                WebServer web = new WebServer(0,
+                        new FilePathRoute(disk, "/disk.bin", false),
+                        new FilePathRoute(disk, "/mapped.bin", true)).transport(transport);
+                web.start();
+                try (TestClient client = new TestClient(web)) {
+                    String ranges = "Range: bytes=0-4,100000-100009,-3\r\n";
+                    client.send(
+                            "GET /disk.bin HTTP/1.1\r\n" + ranges + "\r\n"
+                                    + "GET /mapped.bin HTTP/1.1\r\n" + ranges + "\r\n"
+                                    + "GET /mapped.bin HTTP/1.1\r\nRange: bytes=200000-200009\r\n\r\n"
+                                    + "GET /mapped.bin HTTP/1.1\r\n\r\n"
+                                    + "GET /disk.bin HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+                    for (int i = 0; i < 2; i++) {
+                        String head = client.readHead();
+                        assertTrue(head.startsWith("HTTP/1.1 206 "), head);
+                        String body = new String(client.readBody(head), StandardCharsets.US_ASCII);
+                        int first = body.indexOf(text.substring(0, 5));
+                        int second = body.indexOf(text.substring(100000, 100010));
+                        int third = body.indexOf(text.substring(file.length - 3));
+                        assertTrue(first != -1 && first < second && second < third, transport.name() + ": " + body);
+                    }
+                    assertEquals(text.substring(200000, 200010), client.readText());
+                    assertArrayEquals(file, client.readBody(client.readHead()));
+                    assertArrayEquals(file, client.readBody(client.readHead()));
+                    assertEquals(-1, client.read());
+                } finally {
+                    web.close();
+                }
+            }
+        } finally {
+            Files.delete(disk);
+        }
+    }
+
+    @Test
+    void requestBodiesAreStreamedToTheRoute() throws IOException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0,
+                    new AbstractRoute("/first") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            int first = request.getBodyStream().read();
+                            new FormattedResponse().statusCode(200).statusMessage("OK").content("first " + first).writeTo(outputStream);
+                            return outputStream;
+                        }
+                    },
+                    new AbstractRoute("/count") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            InputStream body = request.getBodyStream();
+                            byte[] buffer = new byte[8192];
+                            long count = 0;
+                            long sum = 0;
+                            int read;
+                            while ((read = body.read(buffer)) != -1) {
+                                for (int i = 0; i < read; i++) sum += buffer[i] & 0xFF;
+                                count += read;
+                            }
+                            new FormattedResponse().statusCode(200).statusMessage("OK").content(count + " " + sum).writeTo(outputStream);
+                            return outputStream;
+                        }
+                    }).transport(transport);
+            web.start();
+            try (TestClient client = new TestClient(web)) {
+                OutputStream out = client.output();
+
+                // The route answers before the rest of the body is sent, and the rest is dropped.
+                out.write("POST /first HTTP/1.1\r\nContent-Length: 30000\r\n\r\n*".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("first 42", client.readText(), transport.name());
+                out.write(new byte[29999]);
+
+                byte[] upload = new byte[8 * 1024 * 1024];
+                long sum = 0;
+                for (int i = 0; i < upload.length; i++) {
+                    upload[i] = (byte) (i * 31);
+                    sum += upload[i] & 0xFF;
+                }
+                out.write(("POST /count HTTP/1.1\r\nContent-Length: " + upload.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(upload);
+                assertEquals(upload.length + " " + sum, client.readText());
+
+                out.write("POST /count HTTP/1.1\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                for (int offset = 0; offset < 300_000; offset += 100_000) {
+                    out.write((Integer.toHexString(100_000) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(upload, offset, 100_000);
+                    out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                }
+                out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                long chunkedSum = 0;
+                for (int i = 0; i < 300_000; i++) chunkedSum += upload[i] & 0xFF;
+                assertEquals("300000 " + chunkedSum, client.readText());
+                assertEquals(-1, client.read());
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void unknownLengthBodiesAreNotChunkedForHttp10() throws IOException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0,
+                    new AbstractRoute("/streamed") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            new FormattedResponse().statusCode(200).statusMessage("OK")
+                                    .content(out -> out.write("streamed".getBytes(StandardCharsets.US_ASCII)))
+                                    .writeTo(outputStream);
+                            return outputStream;
+                        }
+                    }).transport(transport);
+            web.start();
+            try (TestClient client = new TestClient(web)) {
+                client.send("GET /streamed HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+
+                String head = client.readHead();
+                assertFalse(head.contains("Transfer-Encoding"), head);
+                assertTrue(head.contains("Connection: close\r\n"), head);
+                assertEquals("streamed", client.readAll(), transport.name());
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void contentStreamsAreHeldToTheirDeclaredLength() throws IOException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0,
+                    new AbstractRoute("/long") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            new FormattedResponse().statusCode(200).statusMessage("OK")
+                                    .content(new ByteArrayInputStream("longer than said".getBytes(StandardCharsets.US_ASCII)), 6)
+                                    .writeTo(outputStream);
+                            return outputStream;
+                        }
+                    },
+                    new AbstractRoute("/short") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            new FormattedResponse().statusCode(200).statusMessage("OK")
+                                    .content(new ByteArrayInputStream("short".getBytes(StandardCharsets.US_ASCII)), 100)
+                                    .writeTo(outputStream);
+                            return outputStream;
+                        }
+                    }).transport(transport);
+            web.start();
+            try (TestClient client = new TestClient(web)) {
+                client.send(
+                        "GET /long HTTP/1.1\r\n\r\n"
+                                + "GET /short HTTP/1.1\r\n\r\n"
+                                + "GET /long HTTP/1.1\r\n\r\n");
+
+                assertEquals("longer", client.readText(), transport.name());
+                // The short response cannot be completed, so the connection ends instead of the next response.
+                String head = client.readHead();
+                assertTrue(head.contains("Content-Length: 100\r\n"), head);
+                assertTrue(client.readAll().length() < 100, transport.name());
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void responsesSayWhetherTheConnectionStaysOpen() throws IOException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0,
+                    new AbstractRoute("/raw") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            outputStream.write("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\nraw".getBytes(StandardCharsets.US_ASCII));
+                            return outputStream;
+                        }
+                    },
+                    new AbstractRoute("/formatted") {
+                        @Override
+                        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                            new FormattedResponse().statusCode(200).statusMessage("OK").content("formatted").writeTo(outputStream);
+                            return outputStream;
+                        }
+                    }).transport(transport).maxRequestsPerConnection(2);
+            web.start();
+            try {
+                try (TestClient client = new TestClient(web)) {
+                    client.send(
+                            "GET /raw HTTP/1.1\r\n\r\n"
+                                    + "GET /formatted HTTP/1.1\r\n\r\n");
+
+                    String head = client.readHead();
+                    assertFalse(head.contains("Connection:"), transport.name() + ": " + head);
+                    assertEquals("raw", new String(client.readBody(head), StandardCharsets.US_ASCII));
+                    // The second request is the last one the connection may serve.
+                    head = client.readHead();
+                    assertEquals(1, head.split("Connection: close\r\n", -1).length - 1, transport.name() + ": " + head);
+                    assertEquals("formatted", new String(client.readBody(head), StandardCharsets.US_ASCII));
+                    assertEquals(-1, client.read(), transport.name());
+                }
+
+                for (String path : new String[]{"/raw", "/formatted"}) {
+                    try (TestClient client = new TestClient(web)) {
+                        client.send(
+                                "GET " + path + " HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"
+                                        + "GET " + path + " HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+                        String head = client.readHead();
+                        assertTrue(head.startsWith("HTTP/1.1 200"), head);
+                        assertEquals(1, head.split("Connection: keep-alive\r\n", -1).length - 1, transport.name() + ": " + head);
+                        client.readBody(head);
+                        head = client.readHead();
+                        assertEquals(1, head.split("Connection: close\r\n", -1).length - 1, transport.name() + ": " + head);
+                        client.readBody(head);
+                        assertEquals(-1, client.read(), transport.name());
+                    }
+                }
+            } finally {
+                web.close();
+            }
+        }
+    }
+}
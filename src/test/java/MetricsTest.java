@@ -0,0 +1,74 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.LatencyHistogram;
+import com.github.voxxin.web.MetricsRoute;
+import com.github.voxxin.web.ServerMetrics;
+import com.github.voxxin.web.WebServer;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    void countsRequestsPerRouteAndStatus() throws IOException {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer web = new WebServer(0, new AbstractRoute("/hello") {
+                @Override
+                public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+                    new FormattedResponse().statusCode(200).statusMessage("OK").content("hello").writeTo(outputStream);
+                    return outputStream;
+                }
+            }).transport(transport);
+            web.routes.add(new MetricsRoute("/metrics", web));
+            web.start();
+            try {
+                ServerMetrics metrics = web.getMetrics();
+                String hello = TestClient.exchange(web, "GET /hello HTTP/1.1\r\nConnection: close\r\n\r\n");
+                assertTrue(hello.startsWith("HTTP/1.1 200 "), hello);
+                String missing = TestClient.exchange(web, "GET /nothing-here HTTP/1.1\r\nConnection: close\r\n\r\n");
+                assertTrue(missing.startsWith("HTTP/1.1 404 "), missing);
+                String bad = TestClient.exchange(web, "GET /hello HTTP/1.1\r\nContent-Length: many\r\n\r\n");
+                assertTrue(bad.startsWith("HTTP/1.1 400 "), bad);
+
+                assertEquals(1, metrics.getRequests("/hello"), transport.name());
+                assertEquals(1, metrics.getRequests(ServerMetrics.UNMATCHED_ROUTE), transport.name());
+                assertEquals(1, metrics.getResponses(200), transport.name());
+                assertEquals(1, metrics.getResponses(404), transport.name());
+                assertEquals(1, metrics.getResponses(400), transport.name());
+                assertEquals(1, metrics.getLatency("/hello").getCount(), transport.name());
+                assertTrue(metrics.getBytesIn() > 0, transport.name());
+                assertTrue(metrics.getBytesOut() >= hello.length() + missing.length() + bad.length(), transport.name());
+
+                String scrape = TestClient.exchange(web, "GET /metrics HTTP/1.1\r\nConnection: close\r\n\r\n");
+                assertTrue(scrape.startsWith("HTTP/1.1 200 "), scrape);
+                assertTrue(scrape.contains("easyweblib_requests_total{route=\"/hello\",status=\"2xx\"} 1\n"), scrape);
+                assertTrue(scrape.contains("easyweblib_responses_total{code=\"404\"} 1\n"), scrape);
+                assertTrue(scrape.contains("easyweblib_request_duration_seconds_count{route=\"/hello\"} 1\n"), scrape);
+                assertTrue(scrape.contains("easyweblib_timeouts_total{phase=\"header\"} 0\n"), scrape);
+            } finally {
+                web.close();
+            }
+        }
+    }
+
+    @Test
+    void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int micros = 1; micros <= 1000; micros++) histogram.record(micros * 1000L);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSumMicros());
+        // Buckets are at most 1/16 wider than their lower bound.
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 16.0);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 16.0);
+        assertEquals(1000, histogram.getValueAtPercentile(100), 1000 / 16.0);
+        assertEquals(15, histogram.getCountAtOrBelow(15));
+        assertEquals(1000, histogram.getCountAtOrBelow(Long.MAX_VALUE - 1));
+    }
+}
@@ -0,0 +1,59 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.FilePathRoute;
+import com.github.voxxin.web.WebServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublicDirectoryTest {
+
+    @Test
+    void registersAndReloadsExternalDirectories() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("public");
+        WebServer web = new WebServer(0).watchPublicDirs(true).fileMode(WebServer.FileMode.TRANSFER);
+        try {
+            Files.writeString(directory.resolve("index.html"), "v1");
+            Files.createDirectories(directory.resolve("css"));
+            Files.writeString(directory.resolve("css/site.css"), "body{}");
+
+            web.addPublicDirPath(getClass(), directory + "/", "public/", WebServer.PathType.EXTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY);
+            FilePathRoute index = (FilePathRoute) web.routes.find("/public/index.html");
+            assertNotNull(index);
+            assertNotNull(web.routes.find("/public/css/site.css"));
+
+            Files.writeString(directory.resolve("index.html"), "version 2");
+            await(() -> {
+                AbstractRoute route = web.routes.find("/public/index.html");
+                return route != null && ((FilePathRoute) route).getContentLength() == 9;
+            });
+            assertNotEquals(index.getETag(), ((FilePathRoute) web.routes.find("/public/index.html")).getETag());
+
+            Files.createDirectories(directory.resolve("js"));
+            Files.writeString(directory.resolve("js/app.js"), "run()");
+            await(() -> web.routes.find("/public/js/app.js") != null);
+
+            Files.delete(directory.resolve("css/site.css"));
+            await(() -> web.routes.find("/public/css/site.css") == null);
+        } finally {
+            web.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the directory to reload");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.ResponseCache;
+import com.github.voxxin.web.WebServer;
+import com.github.voxxin.web.request.FormattedRequest;
+import com.github.voxxin.web.request.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+    @Test
+    void servesHitsWithoutRunningTheRoute() throws IOException {
+        CountingRoute route = new CountingRoute();
+        ResponseCache cache = new ResponseCache(0).keyQuery("page");
+        WebServer web = new WebServer(0, route.cache(cache));
+        web.start();
+        try {
+            String first = get(web, "/counted?page=1&utm=a");
+            assertTrue(first.endsWith("call 1 page 1"), first);
+            assertEquals(first, get(web, "/counted?page=1&utm=b"));
+            assertTrue(get(web, "/counted?page=2").endsWith("call 2 page 2"));
+            assertEquals(2, route.calls.get());
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+
+            // Errors are not cached.
+            assertTrue(get(web, "/counted?page=missing").startsWith("HTTP/1.1 404 "));
+            assertTrue(get(web, "/counted?page=missing").startsWith("HTTP/1.1 404 "));
+            assertEquals(4, route.calls.get());
+
+            cache.invalidate("/counted");
+            assertEquals(0, cache.size());
+            assertTrue(get(web, "/counted?page=1").endsWith("call 5 page 1"));
+        } finally {
+            web.close();
+        }
+    }
+
+    @Test
+    void expiresEntries() throws IOException, InterruptedException {
+        CountingRoute route = new CountingRoute();
+        WebServer web = new WebServer(0, route.cache(new ResponseCache(100)));
+        web.start();
+        try {
+            assertEquals(get(web, "/counted"), get(web, "/counted"));
+            Thread.sleep(250);
+            assertTrue(get(web, "/counted").endsWith("call 2 page null"));
+        } finally {
+            web.close();
+        }
+    }
+
+    @Test
+    void runsTheRouteOnceForConcurrentMisses() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingRoute route = new CountingRoute(release);
+        ResponseCache cache = new ResponseCache(0);
+        WebServer web = new WebServer(0, route.cache(cache)).workerThreads(4);
+        web.start();
+        ExecutorService clients = Executors.newFixedThreadPool(3);
+        try {
+            get(web, "/other");
+            Future<String> first = clients.submit(() -> get(web, "/counted"));
+            Future<String> second = clients.submit(() -> get(web, "/counted"));
+            Future<String> third = clients.submit(() -> get(web, "/counted"));
+            for (int i = 0; i < 250 && cache.getMisses() < 3; i++) Thread.sleep(20);
+            assertEquals(3, cache.getMisses());
+
+            release.countDown();
+            String response = first.get(5, TimeUnit.SECONDS);
+            assertTrue(response.endsWith("call 1 page null"), response);
+            assertEquals(response, second.get(5, TimeUnit.SECONDS));
+            assertEquals(response, third.get(5, TimeUnit.SECONDS));
+            assertEquals(1, route.calls.get());
+        } finally {
+            clients.shutdownNow();
+            web.close();
+        }
+    }
+
+    @Test
+    void keysOnPathParameters() throws IOException {
+        CountingRoute route = new CountingRoute();
+        ResponseCache cache = new ResponseCache(0);
+        WebServer web = new WebServer(0, route.cache(cache));
+        web.start();
+        try {
+            assertTrue(get(web, "/counted:1").endsWith("call 1 page null user 1"));
+            assertTrue(get(web, "/counted:2").endsWith("call 2 page null user 2"));
+            assertTrue(get(web, "/counted:1").endsWith("call 1 page null user 1"));
+            assertTrue(get(web, "/counted").endsWith("call 3 page null"));
+            assertEquals(1, cache.getHits());
+
+            cache.invalidate("/counted:1");
+            assertTrue(get(web, "/counted:1").endsWith("call 4 page null user 1"));
+            assertTrue(get(web, "/counted:2").endsWith("call 2 page null user 2"));
+
+            cache.invalidate("/counted");
+            assertEquals(0, cache.size());
+        } finally {
+            web.close();
+        }
+    }
+
+    @Test
+    void runsTheRouteItselfAfterWaitingTooLong() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingRoute route = new CountingRoute(release);
+        ResponseCache cache = new ResponseCache(0).maxWait(100);
+        WebServer web = new WebServer(0, route.cache(cache)).workerThreads(4);
+        web.start();
+        ExecutorService clients = Executors.newFixedThreadPool(1);
+        try {
+            get(web, "/other");
+            Future<String> first = clients.submit(() -> get(web, "/counted"));
+            for (int i = 0; i < 250 && route.calls.get() < 1; i++) Thread.sleep(20);
+
+            // The second request gives up waiting for the first one and runs into the latch itself.
+            new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                release.countDown();
+            }).start();
+            assertTrue(get(web, "/counted").endsWith("call 2 page null"));
+            assertTrue(first.get(5, TimeUnit.SECONDS).endsWith("call 1 page null"));
+            assertEquals(2, route.calls.get());
+        } finally {
+            clients.shutdownNow();
+            web.close();
+        }
+    }
+
+    private static String get(WebServer web, String path) throws IOException {
+        return TestClient.exchange(web, "GET " + path + " HTTP/1.1\r\nConnection: close\r\n\r\n");
+    }
+
+    private static class CountingRoute extends AbstractRoute {
+        final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release;
+
+        CountingRoute() {
+            this(new CountDownLatch(0));
+        }
+
+        CountingRoute(CountDownLatch release) {
+            super("/counted");
+            this.release = release;
+        }
+
+        @Override
+        public OutputStream handleRequests(FormattedRequest request, OutputStream outputStream) throws IOException {
+            int call = calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String page = request.getQuery().get("page");
+            String user = request.getPathParameters();
+            boolean found = !"missing".equals(page);
+            new FormattedResponse()
+                    .statusCode(found ? 200 : 404)
+                    .statusMessage(found ? "OK" : "Not Found")
+                    .content("call " + call + " page " + page + (user != null ? " user " + user : ""))
+                    .writeTo(outputStream);
+            return outputStream;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.RouteRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteRegistryTest {
+
+    @Test
+    void exactRoutesWinOverPatterns() {
+        RouteRegistry registry = new RouteRegistry();
+        AbstractRoute index = new AbstractRoute("/");
+        AbstractRoute logo = new AbstractRoute("/public/logo.png");
+        AbstractRoute anyPublic = new AbstractRoute("/public/*");
+        registry.add(index);
+        registry.add(logo);
+        registry.add(anyPublic);
+
+        assertSame(index, registry.find("/"));
+        assertSame(logo, registry.find("/public/logo.png"));
+        assertSame(anyPublic, registry.find("/public/css/site.css"));
+        assertNull(registry.find("/public"));
+        assertNull(registry.find("/other"));
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    void wildcardSegmentsAndLongestPrefix() {
+        RouteRegistry registry = new RouteRegistry();
+        AbstractRoute profile = new AbstractRoute("/users/*/profile");
+        AbstractRoute users = new AbstractRoute("/users/*");
+        AbstractRoute admin = new AbstractRoute("/users/admin/*");
+        registry.add(profile);
+        registry.add(users);
+        registry.add(admin);
+
+        assertSame(profile, registry.find("/users/42/profile"));
+        assertSame(users, registry.find("/users/42/settings"));
+        assertSame(admin, registry.find("/users/admin/profile"));
+        assertSame(users, registry.find("/users/42"));
+    }
+
+    @Test
+    void addReplacesAndRemoveUnregisters() {
+        RouteRegistry registry = new RouteRegistry();
+        AbstractRoute first = new AbstractRoute("/page");
+        AbstractRoute second = new AbstractRoute("/page");
+        AbstractRoute pattern = new AbstractRoute("/files/*");
+        registry.add(first);
+        registry.add(pattern);
+
+        assertSame(first, registry.add(second));
+        assertSame(second, registry.find("/page"));
+        assertFalse(registry.remove(first));
+        assertTrue(registry.remove(second));
+        assertNull(registry.find("/page"));
+
+        assertSame(pattern, registry.remove("/files/*"));
+        assertNull(registry.find("/files/a.txt"));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,131 @@
+import com.github.voxxin.web.WebServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Connection to a started {@link WebServer} for tests that talk HTTP over a real socket. Servers in tests listen on
+ * port 0, so every test gets a free port, and they are bound once {@link WebServer#start()} returns.
+ */
+final class TestClient implements Closeable {
+    static final int TIMEOUT = 5000;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    TestClient(WebServer web) throws IOException {
+        this.socket = new Socket("localhost", web.getPort());
+        socket.setSoTimeout(TIMEOUT);
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Send a request on a new connection and read everything the server sends until it closes the connection.
+     *
+     * @param web     The server.
+     * @param request The raw request.
+     * @return The raw response.
+     * @throws IOException If the connection fails.
+     */
+    static String exchange(WebServer web, String request) throws IOException {
+        try (TestClient client = new TestClient(web)) {
+            client.send(request);
+            return client.readAll();
+        }
+    }
+
+    /**
+     * Send raw request text.
+     *
+     * @param request The text, sent as ASCII.
+     * @throws IOException If the connection fails.
+     */
+    void send(String request) throws IOException {
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Get the stream to the server, for request bodies sent in pieces.
+     *
+     * @return The output stream.
+     */
+    OutputStream output() {
+        return out;
+    }
+
+    /**
+     * Read the status line and headers of the next response.
+     *
+     * @return The head, including the empty line that ends it.
+     * @throws IOException If the connection closes in the head.
+     */
+    String readHead() throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Connection closed in a response head: " + head);
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read the body of a response with a {@code Content-Length}.
+     *
+     * @param head The head read with {@link #readHead()}.
+     * @return The body.
+     * @throws IOException If the connection fails.
+     */
+    byte[] readBody(String head) throws IOException {
+        int start = head.indexOf("Content-Length: ");
+        assertTrue(start != -1, head);
+        int length = Integer.parseInt(head.substring(start + 16, head.indexOf("\r\n", start)));
+        return in.readNBytes(length);
+    }
+
+    /**
+     * Read the next response and get its body as text.
+     *
+     * @return The body.
+     * @throws IOException If the connection fails.
+     */
+    String readText() throws IOException {
+        return new String(readBody(readHead()), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read a single byte, to check that the server closed the connection.
+     *
+     * @return The byte, or -1 at the end of the stream.
+     * @throws IOException If the connection fails.
+     */
+    int read() throws IOException {
+        return in.read();
+    }
+
+    /**
+     * Read everything until the server closes the connection.
+     *
+     * @return The text read.
+     * @throws IOException If the connection fails.
+     */
+    String readAll() throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -6,7 +6,7 @@ import routes.IndexRoute;
 public class WebsiteTest {
     private final WebServer web;
     public WebsiteTest() {
-        this.web = new WebServer(2020, new IndexRoute());
+        this.web = new WebServer(0, new IndexRoute());
         this.web.addPublicDirPath(this.getClass(), "assets/web/public/", "public/", WebServer.PathType.INTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY);
         this.web.errorPage(new ErrorRoute());
     }
@@ -0,0 +1,164 @@
+package loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.1 client used by the load generator. It sends GET requests and reads whole responses, so the
+ * measured latency covers the server writing the complete body, and it keeps the connection open between requests
+ * unless keep-alive is off or the server closes it.
+ */
+class LoadClient implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final InetSocketAddress address;
+    private final boolean keepAlive;
+    private final byte[] buffer = new byte[8192];
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private long bytesRead;
+
+    /**
+     * @param address   The server address.
+     * @param keepAlive Whether to reuse the connection for the next request.
+     */
+    LoadClient(InetSocketAddress address, boolean keepAlive) {
+        this.address = address;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Send a GET request and read the whole response.
+     *
+     * @param path The request path.
+     * @return The status code of the response.
+     * @throws IOException If the connection fails or the response is malformed, after which the connection is closed.
+     */
+    int get(String path) throws IOException {
+        boolean reused = socket != null;
+        long before = bytesRead;
+        try {
+            return send(path);
+        } catch (IOException e) {
+            close();
+            // A kept-alive connection the server closed before answering is retried once, like browsers do.
+            if (!reused || bytesRead != before) throw e;
+        }
+        try {
+            return send(path);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of bytes read since the last call.
+     *
+     * @return The number of bytes.
+     */
+    long takeBytesRead() {
+        long read = bytesRead;
+        bytesRead = 0;
+        return read;
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+        socket = null;
+    }
+
+    private int send(String path) throws IOException {
+        if (socket == null) connect();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + ":" + address.getPort()
+                + (keepAlive ? "" : "\r\nConnection: close") + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return readResponse();
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT);
+        socket.connect(address, CONNECT_TIMEOUT);
+        in = new BufferedInputStream(socket.getInputStream(), buffer.length);
+        out = socket.getOutputStream();
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) throw new ProtocolException("Bad status line: " + statusLine);
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean close = !keepAlive;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) contentLength = Long.parseLong(value);
+            else if (name.equalsIgnoreCase("Transfer-Encoding")) chunked = value.equalsIgnoreCase("chunked");
+            else if (name.equalsIgnoreCase("Connection")) close |= value.equalsIgnoreCase("close");
+        }
+
+        if (chunked) {
+            long size;
+            while ((size = Long.parseLong(readLine().split(";", 2)[0].trim(), 16)) > 0) {
+                skip(size);
+                readLine();
+            }
+            while (!readLine().isEmpty()) {
+                // Trailers are ignored.
+            }
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            // Without a length the body runs until the server closes the connection.
+            int read;
+            while ((read = in.read(buffer)) != -1) bytesRead += read;
+            close = true;
+        }
+
+        if (close) close();
+        return status;
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1) throw new EOFException("Response body ended early");
+            bytesRead += read;
+            length -= read;
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) throw new EOFException("Connection closed by server");
+            if (b != '\r') line.append((char) b);
+            bytesRead++;
+        }
+        bytesRead++;
+        return line.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package loadtest;
+
+import com.github.voxxin.web.AbstractRoute;
+import com.github.voxxin.web.LatencyHistogram;
+import com.github.voxxin.web.ResponseCache;
+import com.github.voxxin.web.WebServer;
+import routes.ErrorRoute;
+import routes.IndexRoute;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test. Starts a {@link WebServer} on localhost with the {@link IndexRoute} page and the test public
+ * directory, drives it with a number of client connections for a while and prints throughput, latency percentiles
+ * and errors as JSON, so runs on different commits can be compared.
+ * <p>
+ * In the closed loop every connection sends its next request as soon as the previous response arrived, which finds
+ * the throughput the server can sustain. In the open loop requests are started at a fixed rate whether or not earlier
+ * ones have finished, and latency is measured from when a request was due, so a server that falls behind shows it in
+ * the percentiles instead of silently slowing the clients down.
+ * <p>
+ * Options are given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code mode}: {@code closed} or {@code open}, default {@code closed}</li>
+ *     <li>{@code connections}: number of client connections, default 16</li>
+ *     <li>{@code rate}: requests per second in the open loop, default 1000</li>
+ *     <li>{@code duration}: seconds to measure, default 10</li>
+ *     <li>{@code warmup}: seconds to run before measuring, default 2</li>
+ *     <li>{@code keepAlive}: whether connections are reused, default true</li>
+ *     <li>{@code transport}: {@code BLOCKING} or {@code NIO}, default {@code BLOCKING}</li>
+ *     <li>{@code paths}: comma separated paths requested in turn, default {@code /,/public/hello.html}</li>
+ *     <li>{@code port}: the server port, default 0 for any free port</li>
+ *     <li>{@code cacheTtl}: cache the index page in a {@link ResponseCache} for this many milliseconds, off by default</li>
+ *     <li>{@code output}: file to write the JSON to instead of standard output</li>
+ * </ul>
+ * For example {@code ./gradlew loadTest -PloadTestArgs="--mode=open --rate=5000 --transport=NIO"}.
+ */
+public class LoadTest {
+    private final boolean openLoop;
+    private final int connections;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final boolean keepAlive;
+    private final WebServer.Transport transport;
+    private final String[] paths;
+    private final int port;
+    private final long cacheTtl;
+    private InetSocketAddress address;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final AtomicLong tickets = new AtomicLong();
+    private long start;
+    private long measureStart;
+    private long end;
+
+    LoadTest(Map<String, String> options) {
+        String mode = options.getOrDefault("mode", "closed");
+        if (!mode.equals("closed") && !mode.equals("open")) throw new IllegalArgumentException("Unknown mode: " + mode);
+        this.openLoop = mode.equals("open");
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        this.durationNanos = (long) (Double.parseDouble(options.getOrDefault("duration", "10")) * 1e9);
+        this.warmupNanos = (long) (Double.parseDouble(options.getOrDefault("warmup", "2")) * 1e9);
+        this.keepAlive = Boolean.parseBoolean(options.getOrDefault("keepAlive", "true"));
+        this.transport = WebServer.Transport.valueOf(options.getOrDefault("transport", "BLOCKING").toUpperCase(Locale.ROOT));
+        this.paths = options.getOrDefault("paths", "/,/public/hello.html").split(",");
+        this.port = Integer.parseInt(options.getOrDefault("port", "0"));
+        this.cacheTtl = Long.parseLong(options.getOrDefault("cacheTtl", "-1"));
+        if (connections < 1 || rate <= 0) throw new IllegalArgumentException("connections and rate must be positive");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        String json = new LoadTest(options).run();
+        String output = options.get("output");
+        if (output != null) Files.writeString(Path.of(output), json, StandardCharsets.UTF_8);
+        else System.out.print(json);
+    }
+
+    /**
+     * Start the server, run the load and stop the server again.
+     *
+     * @return The results as JSON.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    String run() throws InterruptedException {
+        AbstractRoute index = new IndexRoute();
+        if (cacheTtl >= 0) index.cache(new ResponseCache(cacheTtl));
+        WebServer web = new WebServer(port, index).transport(transport);
+        web.addPublicDirPath(LoadTest.class, "assets/web/public/", "public/", WebServer.PathType.INTERNAL, WebServer.DirectoryPosition.SUBDIRECTORY);
+        web.errorPage(new ErrorRoute());
+        web.start();
+        address = new InetSocketAddress("localhost", web.getPort());
+        try {
+            return drive();
+        } finally {
+            web.close();
+        }
+    }
+
+    private String drive() throws InterruptedException {
+        start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        end = measureStart + durationNanos;
+
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            int first = i;
+            Thread client = new Thread(() -> drive(first), "load-client-" + i);
+            client.setDaemon(true);
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) client.join();
+        return report();
+    }
+
+    /**
+     * Send requests on one connection until the test ends.
+     *
+     * @param first The index of the first path to request, so connections do not all ask for the same path.
+     */
+    private void drive(int first) {
+        long interval = (long) (1e9 / rate);
+        int next = first;
+        try (LoadClient client = new LoadClient(address, keepAlive)) {
+            while (true) {
+                long due;
+                if (openLoop) {
+                    due = start + tickets.getAndIncrement() * interval;
+                    if (due >= end) return;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                } else {
+                    due = System.nanoTime();
+                    if (due >= end) return;
+                }
+
+                String path = paths[next++ % paths.length];
+                int status = -1;
+                try {
+                    status = client.get(path);
+                } catch (IOException e) {
+                    // Counted below, the next request reconnects.
+                }
+                long done = System.nanoTime();
+                long read = client.takeBytesRead();
+                if (due < measureStart) continue;
+
+                bytes.add(read);
+                if (status == -1) {
+                    failures.increment();
+                    continue;
+                }
+                responses.increment();
+                latency.record(done - due);
+                statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    private String report() {
+        double seconds = durationNanos / 1e9;
+        long completed = responses.sum();
+        long errors = failures.sum();
+        Map<Integer, Long> codes = new TreeMap<>();
+        statuses.forEach((status, count) -> codes.put(status, count.sum()));
+        for (Map.Entry<Integer, Long> code : codes.entrySet()) {
+            if (code.getKey() >= 400) errors += code.getValue();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"mode\": \"").append(openLoop ? "open" : "closed").append("\",\n");
+        json.append("  \"transport\": \"").append(transport).append("\",\n");
+        json.append("  \"connections\": ").append(connections).append(",\n");
+        json.append("  \"keepAlive\": ").append(keepAlive).append(",\n");
+        json.append("  \"cacheTtl\": ").append(cacheTtl).append(",\n");
+        if (openLoop) json.append("  \"targetRate\": ").append(number(rate)).append(",\n");
+        json.append("  \"durationSeconds\": ").append(number(seconds)).append(",\n");
+        json.append("  \"requests\": ").append(completed + failures.sum()).append(",\n");
+        json.append("  \"responses\": ").append(completed).append(",\n");
+        json.append("  \"throughput\": ").append(number(completed / seconds)).append(",\n");
+        json.append("  \"bytesPerSecond\": ").append(number(bytes.sum() / seconds)).append(",\n");
+        json.append("  \"errors\": ").append(errors).append(",\n");
+        json.append("  \"connectionErrors\": ").append(failures.sum()).append(",\n");
+        json.append("  \"statuses\": {");
+        String separator = "";
+        for (Map.Entry<Integer, Long> code : codes.entrySet()) {
+            json.append(separator).append('"').append(code.getKey()).append("\": ").append(code.getValue());
+            separator = ", ";
+        }
+        json.append("},\n");
+        json.append("  \"latencyMicros\": {");
+        json.append("\"mean\": ").append(completed > 0 ? latency.getSumMicros() / completed : 0);
+        json.append(", \"p50\": ").append(latency.getValueAtPercentile(50));
+        json.append(", \"p90\": ").append(latency.getValueAtPercentile(90));
+        json.append(", \"p99\": ").append(latency.getValueAtPercentile(99));
+        json.append(", \"p999\": ").append(latency.getValueAtPercentile(99.9));
+        json.append(", \"max\": ").append(latency.getValueAtPercentile(100));
+        json.append("}\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
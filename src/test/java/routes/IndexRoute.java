@@ -59,6 +59,6 @@ public class IndexRoute extends AbstractRoute {
                         .build()
         );
 
-        return super.handleRequests(request, outputStream);
+        return outputStream;
     }
 }